@@ -0,0 +1,103 @@
+package ch.aiko.pix.graphics.renderer;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelOps} with the vector API. The math is the same as in {@link Blending}, only done on a whole vector of pixels at once, the branches per pixel become masks. Normal and additive blending onto opaque pixels are vectorized, everything else falls back to the scalar loops.
+ *
+ * Needs Java 16 or newer and --add-modules jdk.incubator.vector. Loaded by {@link PixelOps#get()} if possible.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+final class VectorPixelOps extends PixelOps {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	VectorPixelOps() {}
+
+	@Override
+	public String getName() {
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+
+	@Override
+	public void fill(int[] dst, int off, int len, int color) {
+		IntVector c = IntVector.broadcast(SPECIES, color);
+		int i = off, end = off + len;
+		for (int bound = off + SPECIES.loopBound(len); i < bound; i += SPECIES.length())
+			c.intoArray(dst, i);
+		for (; i < end; i++)
+			dst[i] = color;
+	}
+
+	@Override
+	public void blendSpan(int[] dst, int off, int len, int color, int mode, boolean opaqueDst) {
+		int a = color >>> 24;
+		if (!opaqueDst || mode != Blending.NORMAL && mode != Blending.ADD || a == 0) {
+			super.blendSpan(dst, off, len, color, mode, opaqueDst);
+			return;
+		}
+		if (mode == Blending.NORMAL && a == 0xFF) {
+			fill(dst, off, len, color);
+			return;
+		}
+		int w = a + (a >> 7);
+		int i = off, end = off + len;
+		int bound = off + SPECIES.loopBound(len);
+		if (mode == Blending.NORMAL) {
+			int iw = 0x100 - w;
+			int srb = (color & 0xFF00FF) * w, sg = (color & 0xFF00) * w;
+			for (; i < bound; i += SPECIES.length()) {
+				IntVector d = IntVector.fromArray(SPECIES, dst, i);
+				IntVector rb = d.and(0xFF00FF).mul(iw).add(srb).lanewise(VectorOperators.LSHR, 8).and(0xFF00FF);
+				IntVector g = d.and(0xFF00).mul(iw).add(sg).lanewise(VectorOperators.LSHR, 8).and(0xFF00);
+				rb.or(g).or(0xFF000000).intoArray(dst, i);
+			}
+		} else {
+			int srb = (color & 0xFF00FF) * w >>> 8 & 0xFF00FF, sg = (color & 0xFF00) * w >>> 8 & 0xFF00;
+			for (; i < bound; i += SPECIES.length()) {
+				IntVector d = IntVector.fromArray(SPECIES, dst, i);
+				IntVector rb = d.and(0xFF00FF).add(srb);
+				IntVector g = d.and(0xFF00).add(sg);
+				saturate(rb, g).or(0xFF000000).intoArray(dst, i);
+			}
+		}
+		super.blendSpan(dst, i, end - i, color, mode, opaqueDst);
+	}
+
+	@Override
+	public void blendRow(int[] src, int soff, int[] dst, int doff, int len, int alphaMask, int mode, boolean opaqueDst) {
+		if (!opaqueDst || mode != Blending.NORMAL) {
+			super.blendRow(src, soff, dst, doff, len, alphaMask, mode, opaqueDst);
+			return;
+		}
+		int i = 0;
+		for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+			IntVector c = IntVector.fromArray(SPECIES, src, soff + i).or(alphaMask);
+			IntVector d = IntVector.fromArray(SPECIES, dst, doff + i);
+			IntVector a = c.lanewise(VectorOperators.LSHR, 24);
+			// Opaque pixels come out unchanged with w = 0x100, only transparent ones need a mask
+			IntVector w = a.add(a.lanewise(VectorOperators.LSHR, 7));
+			IntVector iw = w.neg().add(0x100);
+			IntVector rb = c.and(0xFF00FF).mul(w).add(d.and(0xFF00FF).mul(iw)).lanewise(VectorOperators.LSHR, 8).and(0xFF00FF);
+			IntVector g = c.and(0xFF00).mul(w).add(d.and(0xFF00).mul(iw)).lanewise(VectorOperators.LSHR, 8).and(0xFF00);
+			VectorMask<Integer> transparent = a.eq(0);
+			rb.or(g).or(0xFF000000).blend(d, transparent).intoArray(dst, doff + i);
+		}
+		super.blendRow(src, soff + i, dst, doff + i, len - i, alphaMask, mode, opaqueDst);
+	}
+
+	/**
+	 * Same as the scalar saturate in {@link Blending}: clamps the channels that overflowed into the bit above them to 0xFF
+	 */
+	private static IntVector saturate(IntVector rb, IntVector g) {
+		IntVector orb = rb.and(0x01000100);
+		IntVector og = g.and(0x010000);
+		return rb.or(orb.sub(orb.lanewise(VectorOperators.LSHR, 8))).and(0xFF00FF).or(g.or(og.sub(og.lanewise(VectorOperators.LSHR, 8))).and(0xFF00));
+	}
+
+}
@@ -0,0 +1,102 @@
+package ch.aiko.pix;
+
+import java.awt.Font;
+import java.awt.geom.AffineTransform;
+
+import ch.aiko.pix.core.Renderable;
+import ch.aiko.pix.graphics.PixLayer;
+import ch.aiko.pix.graphics.PixPanel;
+import ch.aiko.pix.graphics.renderer.Blending;
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * Draws the same moving scene headless with the normal and the tiled renderer and checks that both frames have the same pixels. Exits with 1 if they don't
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class PixTest_Tiled {
+
+	static final int WIDTH = 320;
+	static final int HEIGHT = 200;
+	static final int FRAMES = 30;
+
+	static PixImage sprite = new PixImage(24, 24);
+
+	public static void main(String[] args) {
+		for (int y = 0; y < 24; y++) {
+			for (int x = 0; x < 24; x++)
+				sprite.setPixel(x, y, (x + y) % 5 == 0 ? 0 : (0x40 + x * 8) << 24 | (x * 10) << 16 | (y * 10) << 8 | 0x80);
+		}
+
+		PixPanel normal = new PixPanel(WIDTH, HEIGHT, true);
+		PixPanel tiled = new PixPanel(WIDTH, HEIGHT, true);
+		tiled.setTiledRendering(true);
+		normal.addChild(new PixLayer(scene(), (l) -> false, 0));
+		tiled.addChild(new PixLayer(scene(), (l) -> false, 0));
+
+		int[] a = new int[WIDTH * HEIGHT];
+		int[] b = new int[WIDTH * HEIGHT];
+		int wrong = 0;
+		for (int f = 0; f < FRAMES; f++) {
+			normal.renderFrames(1);
+			tiled.renderFrames(1);
+			normal.renderer.copyPixels(a);
+			tiled.renderer.copyPixels(b);
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] != b[i]) {
+					if (wrong == 0) System.out.println("First difference in frame " + f + " at " + (i % WIDTH) + ", " + (i / WIDTH) + ": " + Integer.toHexString(a[i]) + " != " + Integer.toHexString(b[i]));
+					wrong++;
+				}
+			}
+		}
+
+		System.out.println(wrong == 0 ? "Same pixels in all " + FRAMES + " frames" : wrong + " pixels differ");
+		System.exit(wrong == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Creates the scene, every panel needs its own since it counts its frames
+	 *
+	 * @return The scene
+	 */
+	static Renderable scene() {
+		int[] frame = { 0 };
+		Font font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+		return (r) -> {
+			int f = frame[0]++;
+			r.clear();
+			r.fillRect(f * 3, 20, 90, 70, 0x80FF0000);
+			r.drawRect(10, 10 + f, 150, 120, 0xFF00FF00);
+			r.drawLine(0, 0, WIDTH - 1, HEIGHT - 1 - f, 0xFFFFFFFF);
+			r.drawLine(5f, 190f, 300f, 15f + f, 3, 0xC00000FF);
+			r.fillCircle(160, 100, 40 + f, 0x6000FFFF);
+			r.drawCircle(60, 150, 35, 0xFFFFFF00);
+			r.drawText(20 + f, 60, "Tiles " + f, 0xFFFFFFFF, font);
+
+			r.drawImage(sprite, 100 + f * 2, 40);
+			r.drawImage(sprite, 200, 120, 70, 50);
+			r.drawImageRotated(sprite, 250, 50, f * 0.2);
+			AffineTransform t = new AffineTransform();
+			t.translate(40, 100);
+			t.scale(1.5, 2);
+			t.shear(0.3, 0);
+			r.drawImage(sprite, t);
+
+			r.pushTranslate(f, 5);
+			r.pushClip(60, 60, 130, 90);
+			r.setBlendMode(Blending.ADD);
+			r.fillRect(40, 40, 200, 100, 0x80404040);
+			r.setBlendMode(Blending.MULTIPLY);
+			r.fillCircle(120, 100, 50, 0xFF80FF80);
+			r.setBlendMode(Blending.REPLACE);
+			r.drawImage(sprite, 150, 70);
+			r.setBlendMode(Blending.CUT_OUT);
+			r.drawImage(sprite, 70, 110);
+			r.setBlendMode(Blending.NORMAL);
+			r.popClip();
+			r.popTranslate();
+		};
+	}
+
+}
@@ -0,0 +1,25 @@
+package ch.aiko.pix.graphics;
+
+import ch.aiko.pix.graphics.renderer.Renderer;
+
+/**
+ * Gets told about every frame a {@link PixPanel} finishes. Without a screen this is the way to get the frames out of the panel.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public interface FrameListener {
+
+	/**
+	 * Called on the render thread after a frame was finished. The renderer still contains the frame, but the next one starts after this returns, so anything that should be kept has to be copied
+	 *
+	 * @param panel
+	 *            The panel that drew the frame
+	 * @param renderer
+	 *            The renderer containing the frame
+	 * @param frame
+	 *            The number of the frame, starting at 0
+	 */
+	public void frameFinished(PixPanel panel, Renderer renderer, long frame);
+
+}
@@ -1,10 +1,13 @@
 package ch.aiko.pix.graphics;
 
+import java.awt.Rectangle;
 import java.util.ArrayList;
 
 import ch.aiko.pix.core.Renderable;
 import ch.aiko.pix.core.Updatable;
+import ch.aiko.pix.graphics.renderer.PixRenderer;
 import ch.aiko.pix.graphics.renderer.Renderer;
+import ch.aiko.pix.image.PixImage;
 import ch.aiko.pix.input.Input;
 
 /**
@@ -29,6 +32,39 @@ public abstract class Layer implements Updatable, Renderable {
 	 */
 	protected Input input = new Input(this);
 
+	/**
+	 * The area this layer draws in, relative to its parent. If set, the layer and its children are clipped to it and draw relative to its upper left corner. null means the layer may draw everywhere
+	 */
+	protected Rectangle bounds = null;
+
+	/**
+	 * The area this layer and its children are guaranteed to fill with opaque pixels every frame, in the coordinates the layer draws in. Layers beneath it aren't drawn where it covers them. null if the layer doesn't promise anything
+	 */
+	protected Rectangle opaqueBounds = null;
+
+	/**
+	 * The parts of the children that are visible (x0, y0, x1, y1 for each child), reused every frame
+	 */
+	private int[] visible = new int[0];
+	/**
+	 * The opaque areas of the children above the one being looked at, same layout
+	 */
+	private int[] occluders = new int[0];
+
+	/**
+	 * If this layer and its children are drawn once into an image that is reused every frame, see {@link #setCached(boolean)}
+	 */
+	private boolean cached = false;
+	/**
+	 * The renderer the cached layer draws into and its pixels, null until the layer is drawn the first time
+	 */
+	private PixRenderer cache;
+	private PixImage cacheImage;
+	/**
+	 * False if the cached image has to be drawn again
+	 */
+	private boolean cacheValid = false;
+
 	/**
 	 * Sorts the children in ascending order (low level to high level) If you think the layers aren't in order you can call this function to sort them
 	 */
@@ -52,10 +88,12 @@ public abstract class Layer implements Updatable, Renderable {
 			if (children.get(i).getLevel() > child.getLevel()) {
 				// System.out.println("Adding child @" + i + "." + child.getClass());
 				children.add(i, child);
+				invalidate();
 				return;
 			}
 		}
 		children.add(children.size(), child);
+		invalidate();
 	}
 
 	/**
@@ -65,7 +103,7 @@ public abstract class Layer implements Updatable, Renderable {
 	 *            The layer to remove
 	 */
 	public void removeChild(Layer child) {
-		children.remove(child);
+		if (children.remove(child)) invalidate();
 	}
 
 	/**
@@ -77,6 +115,75 @@ public abstract class Layer implements Updatable, Renderable {
 		return children;
 	}
 
+	/**
+	 * Sets the area this layer draws in. The layer will draw with (0|0) being the upper left corner of the area and nothing outside of it will be drawn.
+	 * 
+	 * @param bounds
+	 *            The area relative to the parent layer, or null to draw everywhere
+	 */
+	public void setBounds(Rectangle bounds) {
+		this.bounds = bounds;
+		if (parent != null) parent.invalidate(); // Cached parents have to draw the layer at the new place
+	}
+
+	/**
+	 * Gets the area this layer draws in
+	 * 
+	 * @return The area relative to the parent layer, or null if the layer isn't restricted
+	 */
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Sets the area this layer fills with opaque pixels every frame, together with its children. The layers beneath it are skipped if the area covers their bounds completely, and clipped if it covers one of their sides. Drawing anything translucent in the area leaves the skipped layers out of the image, so the area must really be opaque.
+	 * 
+	 * @param opaqueBounds
+	 *            The area in the coordinates the layer draws in (relative to its bounds, if it has some), or null if nothing is guaranteed to be opaque
+	 */
+	public void setOpaqueBounds(Rectangle opaqueBounds) {
+		this.opaqueBounds = opaqueBounds;
+	}
+
+	/**
+	 * Gets the area this layer fills with opaque pixels every frame. Gets called once per frame, so layers whose opaque area moves can override this instead of setting it
+	 * 
+	 * @return The area in the coordinates the layer draws in, or null if nothing is guaranteed to be opaque
+	 */
+	public Rectangle getOpaqueBounds() {
+		return opaqueBounds;
+	}
+
+	/**
+	 * Lets the layer draw itself and its children once into an image with an alpha channel. Every frame after that, only the image is drawn, until {@link #invalidate()} is called or the size changes. Meant for layers that look the same every frame, like backgrounds or the frame of a HUD. The size of the image is the size of the bounds, or of the renderer if the layer has none.
+	 * 
+	 * @param cached
+	 *            True to cache the layer
+	 */
+	public void setCached(boolean cached) {
+		this.cached = cached;
+		cache = null; // Frees the image or makes sure it's drawn fresh
+		cacheImage = null;
+		cacheValid = false;
+	}
+
+	/**
+	 * If the layer is drawn from a cached image
+	 * 
+	 * @return True if the layer is cached
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * Makes cached layers draw themselves again in the next frame. Has to be called when the layer or one of its children looks different, the cached parents are invalidated as well
+	 */
+	public void invalidate() {
+		for (Layer l = this; l != null; l = l.parent)
+			l.cacheValid = false;
+	}
+
 	/**
 	 * Gets the input object of this layer
 	 * 
@@ -100,13 +207,113 @@ public abstract class Layer implements Updatable, Renderable {
 			if (c == null) continue;
 			if (c.blocksRender()) break;
 		}
-		for (i = i < 0 ? 0 : i; i < children.size(); i++) {
+		int start = i < 0 ? 0 : i;
+		cull(renderer, start);
+		for (i = start; i < children.size(); i++) {
 			Layer c = children.get(i);
 			if (c == null) continue;
-			c.preRender(renderer);
-			c.renderChildren(renderer);
-			c.render(renderer);
+			int v = (i - start) * 4;
+			if (visible[v] >= visible[v + 2] || visible[v + 1] >= visible[v + 3]) continue; // Covered by opaque layers above
+			Rectangle b = c.bounds;
+			renderer.pushClip(visible[v], visible[v + 1], visible[v + 2] - visible[v], visible[v + 3] - visible[v + 1]);
+			if (b != null) renderer.pushTranslate(b.x, b.y);
+			if (c.cached) c.renderCached(renderer);
+			else {
+				c.preRender(renderer);
+				c.renderChildren(renderer);
+				c.render(renderer);
+			}
+			if (b != null) renderer.popTranslate();
+			renderer.popClip();
+		}
+	}
+
+	/**
+	 * Finds the visible part of every child that gets drawn. Goes from the top down and collects the opaque areas on the way, so every child is only compared with the ones above it. A child is only shrunk if an opaque area covers one of its sides completely, so the visible part stays a rectangle. Children without bounds cover the current clip of the renderer
+	 * 
+	 * @param renderer
+	 *            The renderer the children get drawn with
+	 * @param start
+	 *            The index of the lowest child that gets drawn
+	 */
+	private void cull(Renderer renderer, int start) {
+		int n = children.size() - start;
+		if (visible.length < n * 4) {
+			visible = new int[n * 4];
+			occluders = new int[n * 4];
+		}
+		Rectangle clip = renderer.getClipBounds();
+		int count = 0;
+		for (int i = children.size() - 1; i >= start; i--) {
+			Layer c = children.get(i);
+			if (c == null) continue;
+			Rectangle b = c.bounds;
+			Rectangle area = b != null ? b : clip;
+			int x0 = area.x, y0 = area.y, x1 = area.x + area.width, y1 = area.y + area.height;
+			for (int k = 0; k < count && x0 < x1 && y0 < y1; k += 4) {
+				int ox0 = occluders[k], oy0 = occluders[k + 1], ox1 = occluders[k + 2], oy1 = occluders[k + 3];
+				if (ox0 <= x0 && ox1 >= x1) {
+					if (oy0 <= y0 && oy1 > y0) y0 = oy1;
+					else if (oy1 >= y1 && oy0 < y1) y1 = oy0;
+				} else if (oy0 <= y0 && oy1 >= y1) {
+					if (ox0 <= x0 && ox1 > x0) x0 = ox1;
+					else if (ox1 >= x1 && ox0 < x1) x1 = ox0;
+				}
+			}
+			int v = (i - start) * 4;
+			visible[v] = x0;
+			visible[v + 1] = y0;
+			visible[v + 2] = x1;
+			visible[v + 3] = y1;
+
+			Rectangle o = c.getOpaqueBounds();
+			if (o == null) continue;
+			int ox0 = o.x, oy0 = o.y, ox1 = o.x + o.width, oy1 = o.y + o.height;
+			if (b != null) {
+				// Into the coordinates of this layer
+				ox0 += b.x;
+				oy0 += b.y;
+				ox1 += b.x;
+				oy1 += b.y;
+			}
+			// Only the part inside the area gets drawn
+			ox0 = Math.max(ox0, area.x);
+			oy0 = Math.max(oy0, area.y);
+			ox1 = Math.min(ox1, area.x + area.width);
+			oy1 = Math.min(oy1, area.y + area.height);
+			if (ox0 >= ox1 || oy0 >= oy1) continue;
+			occluders[count++] = ox0;
+			occluders[count++] = oy0;
+			occluders[count++] = ox1;
+			occluders[count++] = oy1;
+		}
+	}
+
+	/**
+	 * Draws the cached image, after drawing the layer into it if it's out of date
+	 * 
+	 * @param renderer
+	 *            The renderer to draw the image with
+	 */
+	private void renderCached(Renderer renderer) {
+		int w = bounds != null ? bounds.width : renderer.getWidth();
+		int h = bounds != null ? bounds.height : renderer.getHeight();
+		if (w <= 0 || h <= 0) return;
+		if (cache == null || cache.getWidth() != w || cache.getHeight() != h) {
+			cache = new PixRenderer(w, h, false);
+			cacheImage = PixImage.wrap(cache.getImage());
+			cacheValid = false;
+		}
+		if (!cacheValid) {
+			cache.clear(0);
+			cache.setInterpolation(renderer.getInterpolation());
+			preRender(cache);
+			renderChildren(cache);
+			render(cache);
+			cacheImage.invalidate(); // The transparent parts changed
+			cacheValid = true;
 		}
+		renderer.drawImage(cacheImage, 0, 0);
 	}
 
 	/**
@@ -1,15 +1,20 @@
 package ch.aiko.pix.graphics;
 
+import java.awt.BufferCapabilities;
 import java.awt.Canvas;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferStrategy;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import ch.aiko.pix.graphics.effects.PostProcessor;
 import ch.aiko.pix.graphics.renderer.PixRenderer;
 import ch.aiko.pix.graphics.renderer.Renderer;
+import ch.aiko.pix.graphics.renderer.TiledRenderer;
 
 /**
- * Root of every rendering operation. This can't do anything alone. Every PixPanel that should be rendered, need to be added to a {@link PixWindow Window}.
+ * Root of every rendering operation. This can't do anything alone. Every PixPanel that should be rendered, need to be added to a {@link PixWindow Window}. Headless panels have no canvas and draw into their renderer only, see {@link #PixPanel(int, int, boolean)}.
  * 
  * @author AIKO (Aaron Hodel) 2017
  *
@@ -24,10 +29,27 @@ public class PixPanel extends Layer {
 	public static final int DEST_UPS = 60;
 	/** How long we need to wait each update (update included) to achieve the dest_ups */
 	public static final int WAIT_TIME = SECOND / DEST_UPS;
+	/** How many updates are done in a row at most when the updates fell behind. Older missed updates are dropped, so one slow update can't cause more and more of them */
+	public static final int MAX_CATCH_UP = 5;
 
-	/** The second and last swing object created... */
+	/** The second and last swing object created... Null if the panel is headless */
 	private Canvas canvas;
 
+	/**
+	 * Told about every finished frame
+	 */
+	private final CopyOnWriteArrayList<FrameListener> frameListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * How many frames were finished so far
+	 */
+	private long frameCount = 0;
+
+	/**
+	 * Applies the effects to every frame after the children were drawn
+	 */
+	private final PostProcessor postProcessor = new PostProcessor();
+
 	/**
 	 * The renderer which draws the stuff to the screen
 	 */
@@ -61,13 +83,47 @@ public class PixPanel extends Layer {
 	 */
 	protected int ups, fps, lastUPS, lastFPS, dest_slow = 0;
 	
+	/**
+	 * How many frames are drawn per second at most, 0 for as many as possible
+	 */
+	protected int maxFPS = LIMIT_FPS ? DEST_UPS : 0;
+
+	/**
+	 * The time (System.nanoTime) the state after the last update belongs to. Frames are interpolated from there
+	 */
+	private volatile long simulatedTime = System.nanoTime();
+
 	/**
 	 * The size of the renderable content
 	 */
 	protected int renderingWidth, renderingHeight;
 
 	/**
-	 * Creates a new {@link PixPanel} with the given width and height.
+	 * If the frames are recorded and drawn in tiles on all cores instead of on the render thread
+	 */
+	protected boolean tiledRendering = false;
+
+	/**
+	 * If only the changed parts of each frame are drawn to the canvas
+	 */
+	protected boolean dirtyPresentation = false;
+
+	/**
+	 * The size of the canvas when the last frame was drawn to it
+	 */
+	private int presentedWidth, presentedHeight;
+
+	/**
+	 * Shows the frames through a volatile image if the pipeline accelerates it, null to always draw straight to the canvas
+	 */
+	private VolatilePresenter presenter = new VolatilePresenter();
+	/**
+	 * How the last frame was shown, one of the PATH constants in {@link VolatilePresenter}
+	 */
+	private int presentPath = VolatilePresenter.PATH_NONE;
+
+	/**
+	 * Creates a new {@link PixPanel} with the given width and height. The panel is headless if java runs without a screen.
 	 * 
 	 * @param width
 	 *            The width of the drawable field
@@ -75,13 +131,29 @@ public class PixPanel extends Layer {
 	 *            The height of the drawable field
 	 */
 	public PixPanel(int width, int height) {
-		canvas = new Canvas();
-		canvas.setPreferredSize(new Dimension(width, height));
-		
+		this(width, height, GraphicsEnvironment.isHeadless());
+	}
+
+	/**
+	 * Creates a new {@link PixPanel} with the given width and height. A headless panel has no canvas and can't be added to a window, it only draws into its renderer. The frames can be read with a {@link FrameListener}.
+	 * 
+	 * @param width
+	 *            The width of the drawable field
+	 * @param height
+	 *            The height of the drawable field
+	 * @param headless
+	 *            True to draw without a canvas
+	 */
+	public PixPanel(int width, int height, boolean headless) {
+		if (!headless) {
+			canvas = new Canvas();
+			canvas.setPreferredSize(new Dimension(width, height));
+		}
+
 		this.renderingWidth = width;
 		this.renderingHeight = height;
 
-		renderer = new PixRenderer(width, height);
+		renderer = createRenderer(width, height);
 	}
 
 	/**
@@ -95,7 +167,7 @@ public class PixPanel extends Layer {
 	 *            The {@link PixWindow Window} this panel should be added to
 	 */
 	public PixPanel(int width, int height, PixWindow addTo) {
-		this(width, height);
+		this(width, height, false);
 		
 		this.renderingWidth = width;
 		this.renderingHeight = height;
@@ -130,6 +202,44 @@ public class PixPanel extends Layer {
 		dest_slow = slow < 0 || slow >= 60 ? 0 : 60 - slow;
 	}
 
+	/**
+	 * Limits how many frames are drawn per second. Frames don't update anything, so more frames than updates only make the motion smoother if the layers use {@link Renderer#getInterpolation()}
+	 * 
+	 * @param fps
+	 *            The maximum frames per second, 0 or less for no limit
+	 */
+	public void setMaxFPS(int fps) {
+		maxFPS = Math.max(0, fps);
+	}
+
+	/**
+	 * Gets the maximum amount of frames per second
+	 * 
+	 * @return The limit, 0 if there is none
+	 */
+	public int getMaxFPS() {
+		return maxFPS;
+	}
+
+	/**
+	 * Gets the time between two updates
+	 * 
+	 * @return The length of an update step in nanoseconds
+	 */
+	public long getUpdateTime() {
+		return SECOND / (DEST_UPS - dest_slow);
+	}
+
+	/**
+	 * Gets how far the current moment is between the last update and the next one
+	 * 
+	 * @return A value from 0 to 1
+	 */
+	public float getInterpolation() {
+		float alpha = (float) (System.nanoTime() - simulatedTime) / getUpdateTime();
+		return alpha < 0 ? 0 : alpha > 1 ? 1 : alpha;
+	}
+
 	/**
 	 * run function of the render thread
 	 */
@@ -139,22 +249,17 @@ public class PixPanel extends Layer {
 			long start = System.nanoTime();
 			preRender();
 			++fps;
-			long sleep_time = WAIT_TIME + start - System.nanoTime();
-			if (LIMIT_FPS && sleep_time > 0) {
-				try {
-					Thread.sleep(sleep_time / 1000000, (int) (sleep_time) % 1000000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
+			if (maxFPS > 0) sleep(SECOND / maxFPS + start - System.nanoTime());
 		}
 	}
 
 	/**
-	 * run function of the update thread
+	 * run function of the update thread. Runs the updates with a fixed time step: the time that passed is collected and as many updates as fit into it are done, the rest is kept for the next round. That way the updates happen at the same rate on average, no matter how long each one takes
 	 */
 	protected void updateLoop() {
 		updating = true;
+		long previous = System.nanoTime();
+		long accumulator = 0;
 		while (updating) {
 			long start = System.nanoTime();
 			if (start > last_time + SECOND) {
@@ -166,16 +271,46 @@ public class PixPanel extends Layer {
 				// System.out.println(lastFPS + " FPS");
 				// System.out.println(lastUPS + " UPS");
 			}
+			long step = getUpdateTime();
+			accumulator = Math.min(accumulator + start - previous, step * MAX_CATCH_UP);
+			previous = start;
+			while (accumulator >= step) {
+				preUpdate();
+				++ups;
+				accumulator -= step;
+			}
+			simulatedTime = start - accumulator;
+			sleep(step - accumulator - (System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Sleeps for the given time, if it's positive
+	 * 
+	 * @param nanos
+	 *            The time to sleep in nanoseconds
+	 */
+	private static void sleep(long nanos) {
+		if (nanos <= 0) return;
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Draws the given amount of frames right away on the calling thread, each after one update, as fast as possible. The frames aren't interpolated. Meant for headless panels that aren't started, for example to benchmark a scene or render it to files.
+	 * 
+	 * @param frames
+	 *            How many frames to draw
+	 */
+	public void renderFrames(int frames) {
+		for (int i = 0; i < frames; i++) {
 			preUpdate();
 			++ups;
-			long sleep_time = SECOND / (DEST_UPS - dest_slow) - System.nanoTime() + start - 2000000;
-			if (sleep_time > 0) {
-				try {
-					Thread.sleep(sleep_time / 1000000, (int) (sleep_time) % 1000000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
+			renderFrame(0);
+			++fps;
 		}
 	}
 
@@ -183,6 +318,24 @@ public class PixPanel extends Layer {
 	 * Creates a drawing space and invokes the render function of all children Then draws the image to the canvas
 	 */
 	public final void preRender() {
+		renderFrame(getInterpolation());
+	}
+
+	/**
+	 * Draws a frame and shows it on the canvas if there is one
+	 * 
+	 * @param interpolation
+	 *            How far the frame is between the last and the next update
+	 */
+	private void renderFrame(float interpolation) {
+		if (canvas == null) {
+			renderer.setInterpolation(interpolation);
+			renderChildren(renderer);
+			postProcessor.process(renderer);
+			renderer.finishFrame();
+			frameFinished();
+			return;
+		}
 		if (!canvas.isDisplayable()) return;
 		BufferStrategy bs = canvas.getBufferStrategy();
 		if (bs == null) {
@@ -190,14 +343,89 @@ public class PixPanel extends Layer {
 			return;
 		}
 
+		renderer.setInterpolation(interpolation);
 		renderChildren(renderer);
+		postProcessor.process(renderer);
 
 		Graphics g = bs.getDrawGraphics();
 
-		renderer.finishUp(g, getWidth(), getHeight());
+		VolatilePresenter p = presenter;
+		if (p != null && p.present(g, canvas.getGraphicsConfiguration(), renderer, getWidth(), getHeight(), dirtyPresentation)) {
+			presentPath = p.getPath();
+			presentedWidth = -1; // The canvas only got the volatile image, not the changes
+		} else if (dirtyPresentation) {
+			BufferCapabilities caps = bs.getCapabilities();
+			// A flip swaps the buffers, so the back buffer doesn't contain the last frame anymore
+			boolean keepsContent = !caps.isPageFlipping() || caps.getFlipContents() == BufferCapabilities.FlipContents.COPIED;
+			if (!keepsContent || bs.contentsRestored() || bs.contentsLost() || presentedWidth != getWidth() || presentedHeight != getHeight()) renderer.markAllDirty();
+			presentedWidth = getWidth();
+			presentedHeight = getHeight();
+			renderer.finishUpDirty(g, getWidth(), getHeight());
+			presentPath = VolatilePresenter.PATH_SOFTWARE;
+		} else {
+			renderer.finishUp(g, getWidth(), getHeight());
+			presentPath = VolatilePresenter.PATH_SOFTWARE;
+		}
 
 		g.dispose();
 		bs.show();
+		frameFinished();
+	}
+
+	/**
+	 * Tells the listeners about the frame that was just finished
+	 */
+	private void frameFinished() {
+		for (FrameListener l : frameListeners)
+			l.frameFinished(this, renderer, frameCount);
+		frameCount++;
+	}
+
+	/**
+	 * Adds a listener that gets told about every finished frame
+	 * 
+	 * @param l
+	 *            The listener
+	 */
+	public void addFrameListener(FrameListener l) {
+		frameListeners.add(l);
+	}
+
+	/**
+	 * Removes a listener added with {@link #addFrameListener(FrameListener)}
+	 * 
+	 * @param l
+	 *            The listener
+	 */
+	public void removeFrameListener(FrameListener l) {
+		frameListeners.remove(l);
+	}
+
+	/**
+	 * Gets the post processor that applies effects to every frame, before it's shown. The effects end up in the shown frame and in what the frame listeners get, the drawn frame isn't changed. Renderers without a frame buffer ({@link Renderer#getFrameBuffer()}) are shown without effects
+	 * 
+	 * @return The post processor
+	 */
+	public PostProcessor getPostProcessor() {
+		return postProcessor;
+	}
+
+	/**
+	 * Gets how many frames this panel finished so far
+	 * 
+	 * @return The amount of frames
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * If the panel draws without a canvas
+	 * 
+	 * @return True if there is no canvas
+	 */
+	public boolean isHeadless() {
+		return canvas == null;
 	}
 
 	/**
@@ -220,7 +448,7 @@ public class PixPanel extends Layer {
 	/**
 	 * This returns the foundation of the rendering process
 	 * 
-	 * @return The Canvas
+	 * @return The Canvas, null if the panel is headless
 	 */
 	public Canvas getSwingCanvas() {
 		return canvas;
@@ -231,7 +459,92 @@ public class PixPanel extends Layer {
 	 * 
 	 */
 	public void resetRenderer() {
-		if (getWidth() != 0 && getHeight() != 0) renderer = new PixRenderer(getWidth(), getHeight());
+		if (getWidth() != 0 && getHeight() != 0) renderer = createRenderer(getWidth(), getHeight());
+	}
+
+	/**
+	 * Creates the renderer for the current settings
+	 * 
+	 * @param width
+	 *            The width of the drawable field
+	 * @param height
+	 *            The height of the drawable field
+	 * @return The new renderer
+	 */
+	protected Renderer createRenderer(int width, int height) {
+		Renderer r = tiledRendering ? new TiledRenderer(width, height) : new PixRenderer(width, height);
+		r.setDirtyTracking(dirtyPresentation);
+		return r;
+	}
+
+	/**
+	 * Lets the panel draw only the parts of the frame that changed to the canvas, if the canvas keeps its content between frames. Mostly static scenes can additionally use {@link Renderer#setClearDirtyOnly(boolean)} so clearing the screen doesn't mark everything as changed.
+	 * 
+	 * @param dirtyOnly
+	 *            True to only draw the changed parts
+	 */
+	public void setDirtyPresentation(boolean dirtyOnly) {
+		dirtyPresentation = dirtyOnly;
+		renderer.setDirtyTracking(dirtyOnly);
+	}
+
+	/**
+	 * If only the changed parts of the frames are drawn to the canvas
+	 * 
+	 * @return True if only changes are drawn
+	 */
+	public boolean isDirtyPresentation() {
+		return dirtyPresentation;
+	}
+
+	/**
+	 * Lets the panel show its frames through a volatile image, see {@link VolatilePresenter}. This is on by default, the panel falls back to drawing straight to the canvas by itself if the pipeline can't accelerate it.
+	 * 
+	 * @param accelerated
+	 *            True to use a volatile image if possible
+	 */
+	public void setAcceleratedPresentation(boolean accelerated) {
+		if (accelerated == (presenter != null)) return;
+		presenter = accelerated ? new VolatilePresenter() : null;
+		renderer.markAllDirty();
+	}
+
+	/**
+	 * If the panel tries to show its frames through a volatile image
+	 * 
+	 * @return True if accelerated presentation is on
+	 */
+	public boolean isAcceleratedPresentation() {
+		return presenter != null;
+	}
+
+	/**
+	 * Gets how the last frame was shown on the canvas
+	 * 
+	 * @return {@link VolatilePresenter#PATH_VOLATILE} if it went through an accelerated volatile image, {@link VolatilePresenter#PATH_SOFTWARE} if it was drawn straight to the canvas or {@link VolatilePresenter#PATH_NONE} if nothing was shown yet (or the panel is headless)
+	 */
+	public int getPresentPath() {
+		return presentPath;
+	}
+
+	/**
+	 * Switches between drawing every frame on the render thread and recording it to draw it in tiles on all cores. Both produce the same image. Creates a new renderer.
+	 * 
+	 * @param tiled
+	 *            True to draw the frames in parallel tiles
+	 */
+	public void setTiledRendering(boolean tiled) {
+		tiledRendering = tiled;
+		renderer = createRenderer(renderingWidth, renderingHeight);
+	}
+
+	/**
+	 * If the frames are drawn in parallel tiles
+	 * 
+	 * @return True if the frames are drawn in tiles
+	 */
+	public boolean isTiledRendering() {
+		return tiledRendering;
 	}
 
 	/**
@@ -241,7 +554,11 @@ public class PixPanel extends Layer {
 	 *            The width this canvas should be set to
 	 */
 	public void setWidth(int width) {
-		canvas.setSize(width, getHeight());
+		if (canvas != null) canvas.setSize(width, getHeight());
+		else {
+			renderingWidth = width;
+			resetRenderer();
+		}
 	}
 
 	/**
@@ -251,24 +568,30 @@ public class PixPanel extends Layer {
 	 *            The height this canvas should be set to
 	 */
 	public void setHeight(int height) {
-		canvas.setSize(getWidth(), height);
+		if (canvas != null) canvas.setSize(getWidth(), height);
+		else {
+			renderingHeight = height;
+			resetRenderer();
+		}
 	}
 
 	/**
 	 * Gets the width of the canvas
 	 * 
-	 * @return The width of the canvas
+	 * @return The width of the canvas, the rendering width if the panel is headless
 	 */
 	public int getWidth() {
+		if (canvas == null) return renderingWidth;
 		return canvas.getWidth();
 	}
 
 	/**
 	 * Gets the height of the canvas
 	 * 
-	 * @return The heightof the canvas
+	 * @return The heightof the canvas, the rendering height if the panel is headless
 	 */
 	public int getHeight() {
+		if (canvas == null) return renderingHeight;
 		return canvas.getHeight();
 	}
 
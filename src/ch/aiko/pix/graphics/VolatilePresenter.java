@@ -0,0 +1,173 @@
+package ch.aiko.pix.graphics;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+
+import ch.aiko.pix.graphics.renderer.Renderer;
+
+/**
+ * Shows the frames of a renderer through a {@link VolatileImage}. The frame gets drawn into the volatile image, which lives in the memory of the graphics card if the pipeline can accelerate it, and the volatile image gets copied to the canvas. Copying it is done by the graphics card, and because the volatile image keeps its contents, only the changed parts of a frame have to be uploaded, even if the canvas flips its buffers.
+ *
+ * The contents of a volatile image can get lost at any time (other programs in fullscreen, the screen changes...). It's validated every frame and drawn again completely when it was restored. If it can't be accelerated, the presenter turns itself off and the frames are drawn straight to the canvas like before.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class VolatilePresenter {
+
+	/** Nothing has been shown yet */
+	public static final int PATH_NONE = 0;
+	/** The frames are drawn straight to the canvas */
+	public static final int PATH_SOFTWARE = 1;
+	/** The frames are drawn through an accelerated volatile image */
+	public static final int PATH_VOLATILE = 2;
+
+	/** How often a frame is drawn again if the volatile image keeps losing its contents, before giving up on it for this frame */
+	private static final int MAX_TRIES = 3;
+
+	private VolatileImage image;
+	/** The configuration the image was created for */
+	private GraphicsConfiguration config;
+	/** Set when the pipeline can't accelerate volatile images, nothing is tried anymore after that */
+	private boolean unsupported = false;
+	private int path = PATH_NONE;
+
+	/**
+	 * Shows a frame through the volatile image. Does nothing and returns false if volatile images can't be accelerated, the frame has to be shown some other way then
+	 *
+	 * @param g
+	 *            The graphics of the canvas to draw on
+	 * @param gc
+	 *            The configuration of the canvas
+	 * @param r
+	 *            The renderer whose frame should be shown
+	 * @param w
+	 *            The width of the canvas
+	 * @param h
+	 *            The height of the canvas
+	 * @param dirtyOnly
+	 *            True to upload only the parts of the frame that changed, see {@link Renderer#finishUpDirty(Graphics, int, int)}
+	 * @return True if the frame was shown, false if the renderer wasn't touched
+	 */
+	public boolean present(Graphics g, GraphicsConfiguration gc, Renderer r, int w, int h, boolean dirtyOnly) {
+		if (unsupported || gc == null || w <= 0 || h <= 0) return fallback();
+
+		boolean all = false;
+		if (image == null || config != gc || image.getWidth() != w || image.getHeight() != h) {
+			if (!create(gc, w, h)) return fallback();
+			all = true;
+		}
+
+		boolean finished = false;
+		for (int tries = 0; tries < MAX_TRIES; tries++) {
+			int state = image.validate(gc);
+			if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (!create(gc, w, h)) break;
+				all = true;
+			} else if (state == VolatileImage.IMAGE_RESTORED) all = true;
+
+			Graphics2D vg = image.createGraphics();
+			if (!finished) {
+				// Only the first try may finish the frame, the changes are gone after that
+				if (all) r.markAllDirty();
+				if (dirtyOnly) r.finishUpDirty(vg, w, h);
+				else r.finishUp(vg, w, h);
+				finished = true;
+			} else r.finishUp(vg, w, h);
+			vg.dispose();
+
+			if (image.contentsLost()) {
+				all = true;
+				continue;
+			}
+			g.drawImage(image, 0, 0, null);
+			if (!image.contentsLost()) {
+				path = PATH_VOLATILE;
+				return true;
+			}
+			all = true;
+		}
+
+		// The image is lost over and over again, show this frame directly and try again with the next one
+		if (!finished && dirtyOnly) r.finishUpDirty(g, w, h);
+		else r.finishUp(g, w, h);
+		r.markAllDirty();
+		path = PATH_SOFTWARE;
+		return true;
+	}
+
+	/**
+	 * Creates the volatile image, turns the presenter off if it isn't accelerated
+	 *
+	 * @return True if there is an accelerated image
+	 */
+	private boolean create(GraphicsConfiguration gc, int w, int h) {
+		dispose();
+		try {
+			image = gc.createCompatibleVolatileImage(w, h, Transparency.OPAQUE);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		if (image == null || !image.getCapabilities().isAccelerated()) {
+			dispose();
+			unsupported = true;
+			return false;
+		}
+		config = gc;
+		return true;
+	}
+
+	private boolean fallback() {
+		path = PATH_SOFTWARE;
+		return false;
+	}
+
+	/**
+	 * Gets how the last frame was shown
+	 *
+	 * @return {@link #PATH_NONE}, {@link #PATH_SOFTWARE} or {@link #PATH_VOLATILE}
+	 */
+	public int getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets a readable name for a path
+	 *
+	 * @param path
+	 *            One of the PATH constants
+	 * @return The name
+	 */
+	public static String getPathName(int path) {
+		switch (path) {
+			case PATH_SOFTWARE:
+				return "software";
+			case PATH_VOLATILE:
+				return "volatile";
+			default:
+				return "none";
+		}
+	}
+
+	/**
+	 * If the pipeline turned out not to accelerate volatile images. The presenter doesn't try to use them anymore then
+	 *
+	 * @return True if volatile images aren't supported
+	 */
+	public boolean isUnsupported() {
+		return unsupported;
+	}
+
+	/**
+	 * Frees the memory of the volatile image. It's created again by the next frame
+	 */
+	public void dispose() {
+		if (image != null) image.flush();
+		image = null;
+		config = null;
+	}
+
+}
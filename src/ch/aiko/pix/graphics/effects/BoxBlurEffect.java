@@ -0,0 +1,97 @@
+package ch.aiko.pix.graphics.effects;
+
+/**
+ * Blurs the image by averaging every pixel with its neighbours in a square. Done in two passes, first horizontally and then vertically, with running sums, so the cost doesn't depend on the radius. Pixels outside of the image take the color of the closest edge. The alpha stays as it is.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class BoxBlurEffect implements Effect {
+
+	private final int radius;
+	/** 65536 divided by the amount of pixels in a row of the box */
+	private final int inv;
+
+	/**
+	 * Creates a box blur
+	 *
+	 * @param radius
+	 *            How many pixels on each side get averaged
+	 */
+	public BoxBlurEffect(int radius) {
+		if (radius < 0) throw new IllegalArgumentException("Negative radius: " + radius);
+		this.radius = radius;
+		inv = (1 << 16) / (2 * radius + 1);
+	}
+
+	/**
+	 * Gets the radius
+	 *
+	 * @return How many pixels on each side get averaged
+	 */
+	public int getRadius() {
+		return radius;
+	}
+
+	@Override
+	public int getPasses() {
+		return 2;
+	}
+
+	@Override
+	public void apply(int pass, int[] src, int[] dst, int width, int height, int y0, int y1) {
+		if (pass == 0) horizontal(src, dst, width, y0, y1);
+		else vertical(src, dst, width, height, y0, y1);
+	}
+
+	private void horizontal(int[] src, int[] dst, int width, int y0, int y1) {
+		int max = width - 1;
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			int sr = 0, sg = 0, sb = 0;
+			for (int k = -radius; k <= radius; k++) {
+				int c = src[row + Math.min(Math.max(k, 0), max)];
+				sr += c >> 16 & 0xFF;
+				sg += c >> 8 & 0xFF;
+				sb += c & 0xFF;
+			}
+			for (int x = 0; x < width; x++) {
+				dst[row + x] = src[row + x] & 0xFF000000 | (sr * inv + 0x8000) >>> 16 << 16 | (sg * inv + 0x8000) >>> 16 << 8 | (sb * inv + 0x8000) >>> 16;
+				int in = src[row + Math.min(x + radius + 1, max)], out = src[row + Math.max(x - radius, 0)];
+				sr += (in >> 16 & 0xFF) - (out >> 16 & 0xFF);
+				sg += (in >> 8 & 0xFF) - (out >> 8 & 0xFF);
+				sb += (in & 0xFF) - (out & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Keeps a sum per column and moves it down row by row, so the memory is read in order
+	 */
+	private void vertical(int[] src, int[] dst, int width, int height, int y0, int y1) {
+		int max = height - 1;
+		int[] sums = PostProcessor.getScratch(width * 3);
+		for (int s = 0; s < width * 3; s++)
+			sums[s] = 0;
+		for (int k = y0 - radius; k <= y0 + radius; k++)
+			addRow(src, sums, Math.min(Math.max(k, 0), max) * width, width, 1);
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			for (int x = 0, s = 0; x < width; x++, s += 3)
+				dst[row + x] = src[row + x] & 0xFF000000 | (sums[s] * inv + 0x8000) >>> 16 << 16 | (sums[s + 1] * inv + 0x8000) >>> 16 << 8 | (sums[s + 2] * inv + 0x8000) >>> 16;
+			if (y + 1 == y1) break;
+			addRow(src, sums, Math.min(y + radius + 1, max) * width, width, 1);
+			addRow(src, sums, Math.max(y - radius, 0) * width, width, -1);
+		}
+	}
+
+	private static void addRow(int[] src, int[] sums, int row, int width, int sign) {
+		for (int x = 0, s = 0; x < width; x++, s += 3) {
+			int c = src[row + x];
+			sums[s] += sign * (c >> 16 & 0xFF);
+			sums[s + 1] += sign * (c >> 8 & 0xFF);
+			sums[s + 2] += sign * (c & 0xFF);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package ch.aiko.pix.graphics.effects;
+
+/**
+ * Color grading with a matrix: every new channel is a weighted sum of the old red, green and blue plus an offset. The alpha stays as it is.
+ *
+ * The products are looked up in tables, so a pixel only needs additions.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class ColorMatrixEffect implements Effect {
+
+	/** The weights of every input value for every output channel, times 256 */
+	private final int[] table = new int[9 * 256];
+	/** The offsets of the output channels, times 256 */
+	private final int[] offsets = new int[3];
+
+	/**
+	 * Creates a color matrix effect
+	 *
+	 * @param matrix
+	 *            12 values, row by row: the red, green and blue weights and the offset (0-255) for the new red, green and blue
+	 */
+	public ColorMatrixEffect(float... matrix) {
+		if (matrix.length != 12) throw new IllegalArgumentException("The matrix needs 12 values, not " + matrix.length);
+		for (int out = 0; out < 3; out++) {
+			for (int in = 0; in < 3; in++) {
+				float m = matrix[out * 4 + in];
+				for (int v = 0; v < 256; v++)
+					table[(out * 3 + in) * 256 + v] = Math.round(m * v * 256);
+			}
+			offsets[out] = Math.round(matrix[out * 4 + 3] * 256) + 128; // Rounds the result
+		}
+	}
+
+	/**
+	 * Makes the image brighter or darker
+	 *
+	 * @param amount
+	 *            How much to add to every channel, -255 to 255
+	 * @return The effect
+	 */
+	public static ColorMatrixEffect brightness(float amount) {
+		return new ColorMatrixEffect(1, 0, 0, amount, 0, 1, 0, amount, 0, 0, 1, amount);
+	}
+
+	/**
+	 * Changes the contrast
+	 *
+	 * @param factor
+	 *            1 keeps the image as it is, less makes it flatter, more makes it harder
+	 * @return The effect
+	 */
+	public static ColorMatrixEffect contrast(float factor) {
+		float o = 127.5f * (1 - factor);
+		return new ColorMatrixEffect(factor, 0, 0, o, 0, factor, 0, o, 0, 0, factor, o);
+	}
+
+	/**
+	 * Changes the saturation
+	 *
+	 * @param factor
+	 *            0 for gray, 1 keeps the image as it is, more makes the colors stronger
+	 * @return The effect
+	 */
+	public static ColorMatrixEffect saturation(float factor) {
+		float r = 0.2126f * (1 - factor), g = 0.7152f * (1 - factor), b = 0.0722f * (1 - factor);
+		return new ColorMatrixEffect(r + factor, g, b, 0, r, g + factor, b, 0, r, g, b + factor, 0);
+	}
+
+	/**
+	 * Gives the image the brown look of old photos
+	 *
+	 * @return The effect
+	 */
+	public static ColorMatrixEffect sepia() {
+		return new ColorMatrixEffect(0.393f, 0.769f, 0.189f, 0, 0.349f, 0.686f, 0.168f, 0, 0.272f, 0.534f, 0.131f, 0);
+	}
+
+	@Override
+	public void apply(int pass, int[] src, int[] dst, int width, int height, int y0, int y1) {
+		int[] t = table;
+		int or = offsets[0], og = offsets[1], ob = offsets[2];
+		for (int i = y0 * width, end = y1 * width; i < end; i++) {
+			int c = src[i];
+			int r = c >> 16 & 0xFF, g = c >> 8 & 0xFF, b = c & 0xFF;
+			int nr = t[r] + t[256 + g] + t[512 + b] + or >> 8;
+			int ng = t[768 + r] + t[1024 + g] + t[1280 + b] + og >> 8;
+			int nb = t[1536 + r] + t[1792 + g] + t[2048 + b] + ob >> 8;
+			dst[i] = c & 0xFF000000 | clamp(nr) << 16 | clamp(ng) << 8 | clamp(nb);
+		}
+	}
+
+	private static int clamp(int v) {
+		return v < 0 ? 0 : v > 0xFF ? 0xFF : v;
+	}
+
+}
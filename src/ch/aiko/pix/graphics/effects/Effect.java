@@ -0,0 +1,52 @@
+package ch.aiko.pix.graphics.effects;
+
+/**
+ * An effect applied to the whole frame after everything was drawn, see {@link PostProcessor}. The frame is split into bands of rows that are processed at the same time on different threads, so an effect may only write the rows it's given. It can read all rows of the source.
+ *
+ * Effects that need more than one step, like a blur that first goes horizontally and then vertically, have more than one pass. Each pass gets the result of the one before as its source and starts after all bands of the one before are done.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public interface Effect {
+
+	/**
+	 * Gets how many passes the effect needs
+	 *
+	 * @return The amount of passes, 1 by default
+	 */
+	public default int getPasses() {
+		return 1;
+	}
+
+	/**
+	 * Called once per frame before the passes, on the thread that processes the frame. Tables depending on the size can be built here
+	 *
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 */
+	public default void prepare(int width, int height) {}
+
+	/**
+	 * Applies a pass of the effect to a band of rows
+	 *
+	 * @param pass
+	 *            The number of the pass, starting at 0
+	 * @param src
+	 *            The frame to read, row by row
+	 * @param dst
+	 *            Where the result goes, same layout as src
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 * @param y0
+	 *            The first row to write (inclusive)
+	 * @param y1
+	 *            The last row to write (exclusive)
+	 */
+	public void apply(int pass, int[] src, int[] dst, int width, int height, int y0, int y1);
+
+}
@@ -0,0 +1,99 @@
+package ch.aiko.pix.graphics.effects;
+
+/**
+ * Blurs the image with a gaussian curve, softer than {@link BoxBlurEffect} but the cost grows with the radius. Done in two passes, first horizontally and then vertically. The weights are integers that add up to 65536, pixels outside of the image take the color of the closest edge. The alpha stays as it is.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class GaussianBlurEffect implements Effect {
+
+	private final float sigma;
+	private final int radius;
+	/** The weights from -radius to radius, times 65536 */
+	private final int[] weights;
+
+	/**
+	 * Creates a gaussian blur
+	 *
+	 * @param sigma
+	 *            The standard deviation in pixels, the blur reaches three times as far
+	 */
+	public GaussianBlurEffect(float sigma) {
+		if (sigma <= 0) throw new IllegalArgumentException("Sigma has to be positive: " + sigma);
+		this.sigma = sigma;
+		radius = (int) Math.ceil(sigma * 3);
+		weights = new int[radius * 2 + 1];
+
+		double[] w = new double[weights.length];
+		double sum = 0;
+		for (int i = 0; i < w.length; i++)
+			sum += w[i] = Math.exp(-(i - radius) * (i - radius) / (2.0 * sigma * sigma));
+		int total = 0;
+		for (int i = 0; i < w.length; i++)
+			total += weights[i] = (int) Math.round(w[i] / sum * 65536);
+		weights[radius] += 65536 - total; // Rounding leftovers go to the center so flat areas stay the same
+	}
+
+	/**
+	 * Gets the standard deviation
+	 *
+	 * @return The standard deviation in pixels
+	 */
+	public float getSigma() {
+		return sigma;
+	}
+
+	@Override
+	public int getPasses() {
+		return 2;
+	}
+
+	@Override
+	public void apply(int pass, int[] src, int[] dst, int width, int height, int y0, int y1) {
+		if (pass == 0) horizontal(src, dst, width, y0, y1);
+		else vertical(src, dst, width, height, y0, y1);
+	}
+
+	private void horizontal(int[] src, int[] dst, int width, int y0, int y1) {
+		int max = width - 1;
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				int r = 0x8000, g = 0x8000, b = 0x8000;
+				for (int k = -radius; k <= radius; k++) {
+					int c = src[row + Math.min(Math.max(x + k, 0), max)], w = weights[k + radius];
+					r += (c >> 16 & 0xFF) * w;
+					g += (c >> 8 & 0xFF) * w;
+					b += (c & 0xFF) * w;
+				}
+				dst[row + x] = src[row + x] & 0xFF000000 | r >>> 16 << 16 | g >>> 16 << 8 | b >>> 16;
+			}
+		}
+	}
+
+	/**
+	 * Adds up whole rows times their weight, so the memory is read in order
+	 */
+	private void vertical(int[] src, int[] dst, int width, int height, int y0, int y1) {
+		int max = height - 1;
+		int[] sums = PostProcessor.getScratch(width * 3);
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			for (int s = 0; s < width * 3; s++)
+				sums[s] = 0x8000;
+			for (int k = -radius; k <= radius; k++) {
+				int from = Math.min(Math.max(y + k, 0), max) * width, w = weights[k + radius];
+				for (int x = 0, s = 0; x < width; x++, s += 3) {
+					int c = src[from + x];
+					sums[s] += (c >> 16 & 0xFF) * w;
+					sums[s + 1] += (c >> 8 & 0xFF) * w;
+					sums[s + 2] += (c & 0xFF) * w;
+				}
+			}
+			for (int x = 0, s = 0; x < width; x++, s += 3)
+				dst[row + x] = src[row + x] & 0xFF000000 | sums[s] >>> 16 << 16 | sums[s + 1] >>> 16 << 8 | sums[s + 2] >>> 16;
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package ch.aiko.pix.graphics.effects;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ch.aiko.pix.graphics.renderer.Renderer;
+
+/**
+ * Runs a chain of {@link Effect effects} over a finished frame. The drawn frame isn't changed, the result goes into a separate output buffer that is shown instead. Every pass of every effect is split into bands of rows that run in parallel. The passes read from one buffer and write into another, the buffers are kept for the next frames.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class PostProcessor {
+
+	/** Bands aren't made smaller than this, tiny bands cost more to schedule than they save */
+	public static final int MIN_BAND_HEIGHT = 16;
+
+	private final CopyOnWriteArrayList<Effect> effects = new CopyOnWriteArrayList<>();
+	private final ForkJoinPool pool;
+
+	/** A scratch array per thread, see {@link #getScratch(int)} */
+	private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[0]);
+
+	/** The buffers the passes write into in turns */
+	private int[] a, b;
+
+	/**
+	 * Creates a post processor using the common pool
+	 */
+	public PostProcessor() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a post processor
+	 *
+	 * @param pool
+	 *            The pool to run the bands on
+	 */
+	public PostProcessor(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds an effect to the end of the chain
+	 *
+	 * @param e
+	 *            The effect
+	 */
+	public void addEffect(Effect e) {
+		effects.add(e);
+	}
+
+	/**
+	 * Removes an effect from the chain
+	 *
+	 * @param e
+	 *            The effect
+	 */
+	public void removeEffect(Effect e) {
+		effects.remove(e);
+	}
+
+	/**
+	 * Removes all effects
+	 */
+	public void clearEffects() {
+		effects.clear();
+	}
+
+	/**
+	 * If there are any effects
+	 *
+	 * @return True if the chain isn't empty
+	 */
+	public boolean hasEffects() {
+		return !effects.isEmpty();
+	}
+
+	/**
+	 * Applies all effects to the frame of a renderer. The result goes into the output buffer of the renderer ({@link Renderer#getOutputBuffer()}), which is shown instead of the frame, the drawn frame stays as it is. If there are no effects, the drawn frame is shown again. Renderers without a frame buffer or output buffer (DirectRenderer, IndexedRenderer, GraphicsRenderer) are left alone, their frames are shown without effects
+	 *
+	 * @param r
+	 *            The renderer
+	 */
+	public void process(Renderer r) {
+		if (effects.isEmpty()) {
+			r.setOutputEnabled(false);
+			return;
+		}
+		int[] pixels = r.getFrameBuffer();
+		int[] out = r.getOutputBuffer();
+		if (pixels == null || out == null) return;
+		process(pixels, out, r.getWidth(), r.getHeight());
+		r.setOutputEnabled(true);
+		r.markAllChanged();
+	}
+
+	/**
+	 * Applies all effects to a frame
+	 *
+	 * @param pixels
+	 *            The colors of the frame, row by row. Gets replaced with the result
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 */
+	public void process(int[] pixels, int width, int height) {
+		process(pixels, pixels, width, height);
+	}
+
+	/**
+	 * Applies all effects to a frame and writes the result into another array
+	 *
+	 * @param pixels
+	 *            The colors of the frame, row by row. Only changed if it's the same array as out
+	 * @param out
+	 *            Gets the result, row by row. If there are no effects, the frame is copied
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 */
+	public void process(int[] pixels, int[] out, int width, int height) {
+		Effect[] chain = effects.toArray(new Effect[0]);
+		int passes = 0;
+		for (Effect e : chain) {
+			e.prepare(width, height);
+			passes += e.getPasses();
+		}
+		int n = width * height;
+		if (passes == 0) {
+			if (out != pixels) System.arraycopy(pixels, 0, out, 0, n);
+			return;
+		}
+		if (a == null || a.length < n) {
+			a = new int[n];
+			b = new int[n];
+		}
+
+		int band = Math.max(MIN_BAND_HEIGHT, (height + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+		int[] src = pixels;
+		int done = 0;
+		for (Effect e : chain) {
+			for (int p = 0; p < e.getPasses(); p++, done++) {
+				// The last pass writes into the output, unless it would read from it at the same time. All others go into whichever buffer isn't the source
+				int[] dst = done == passes - 1 && src != out ? out : src == a ? b : a;
+				pool.invoke(new BandTask(e, p, src, dst, width, height, 0, height, band));
+				src = dst;
+			}
+		}
+		if (src != out) System.arraycopy(src, 0, out, 0, n); // Only if a single pass ran in place
+	}
+
+	/**
+	 * Gets a scratch array for the thread that runs a band. It's kept for the next bands and frames on the same thread and its contents are whatever the last user left in it
+	 *
+	 * @param length
+	 *            The length that is needed at least
+	 * @return The array
+	 */
+	public static int[] getScratch(int length) {
+		int[] s = SCRATCH.get();
+		if (s.length < length) SCRATCH.set(s = new int[length]);
+		return s;
+	}
+
+	/**
+	 * Runs a pass on a range of rows, split into bands
+	 */
+	private static class BandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Effect effect;
+		private final int pass, width, height, y0, y1, band;
+		private final int[] src, dst;
+
+		BandTask(Effect effect, int pass, int[] src, int[] dst, int width, int height, int y0, int y1, int band) {
+			this.effect = effect;
+			this.pass = pass;
+			this.src = src;
+			this.dst = dst;
+			this.width = width;
+			this.height = height;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.band = band;
+		}
+
+		@Override
+		protected void compute() {
+			if (y1 - y0 > band) {
+				int mid = (y0 + y1) >>> 1;
+				invokeAll(new BandTask(effect, pass, src, dst, width, height, y0, mid, band), new BandTask(effect, pass, src, dst, width, height, mid, y1, band));
+				return;
+			}
+			effect.apply(pass, src, dst, width, height, y0, y1);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package ch.aiko.pix.graphics.effects;
+
+/**
+ * Darkens the image towards the corners. The darkening only depends on the distance from the center, so it's put together from a table per column, a table per row and a table per distance. The tables are rebuilt when the size of the frame changes. The alpha stays as it is.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class VignetteEffect implements Effect {
+
+	/** The steps the squared distance is split into for each axis, the corners are at twice this */
+	private static final int STEPS = 512;
+
+	private final float strength, radius;
+	/** The factor (0-256) for every squared distance, from the center to the corners */
+	private final int[] factors = new int[STEPS * 2 + 1];
+	private int[] fx = new int[0], fy = new int[0];
+
+	/**
+	 * Creates a vignette
+	 *
+	 * @param strength
+	 *            How dark the corners get, 0 to 1
+	 * @param radius
+	 *            Where the darkening starts, 0 is the center and 1 the corners
+	 */
+	public VignetteEffect(float strength, float radius) {
+		this.strength = Math.max(0, Math.min(1, strength));
+		this.radius = Math.max(0, Math.min(1, radius));
+		for (int i = 0; i < factors.length; i++) {
+			float d = (float) Math.sqrt(i / (float) (STEPS * 2));
+			float t = this.radius >= 1 ? 0 : Math.max(0, Math.min(1, (d - this.radius) / (1 - this.radius)));
+			factors[i] = Math.round(256 * (1 - this.strength * t * t * (3 - 2 * t)));
+		}
+	}
+
+	/**
+	 * Gets how dark the corners get
+	 *
+	 * @return The strength, 0 to 1
+	 */
+	public float getStrength() {
+		return strength;
+	}
+
+	/**
+	 * Gets where the darkening starts
+	 *
+	 * @return The radius, 0 is the center and 1 the corners
+	 */
+	public float getRadius() {
+		return radius;
+	}
+
+	@Override
+	public void prepare(int width, int height) {
+		if (fx.length != width) fx = axis(width);
+		if (fy.length != height) fy = axis(height);
+	}
+
+	/**
+	 * The squared distance from the center for every position on an axis, 0 in the middle and {@link #STEPS} at the edges
+	 */
+	private static int[] axis(int size) {
+		int[] t = new int[size];
+		float half = size / 2f;
+		for (int i = 0; i < size; i++) {
+			float d = (i + 0.5f - half) / half;
+			t[i] = Math.round(d * d * STEPS);
+		}
+		return t;
+	}
+
+	@Override
+	public void apply(int pass, int[] src, int[] dst, int width, int height, int y0, int y1) {
+		int[] fx = this.fx, f = factors;
+		for (int y = y0; y < y1; y++) {
+			int row = y * width, dy = fy[y];
+			for (int x = 0; x < width; x++) {
+				int c = src[row + x], a = f[fx[x] + dy];
+				// Red and blue get multiplied at the same time, the factor is at most 256 so they can't run into each other
+				dst[row + x] = c & 0xFF000000 | ((c & 0xFF00FF) * a >>> 8 & 0xFF00FF) | ((c & 0xFF00) * a >>> 8 & 0xFF00);
+			}
+		}
+	}
+
+}
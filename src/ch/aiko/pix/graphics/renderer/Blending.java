@@ -0,0 +1,287 @@
+package ch.aiko.pix.graphics.renderer;
+
+/**
+ * The compositing math used by the renderers. Colors are non premultiplied ARGB ints unless the mode says otherwise. Red and blue get computed together in one int (SWAR), green on its own, so most modes need two multiplications per pixel.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public final class Blending {
+
+	/** Source over destination, the default mode */
+	public static final int NORMAL = 0x0;
+	/** Adds the source (weighted by its alpha) to the destination */
+	public static final int ADD = 0x1;
+	/** Multiplies the source with the destination, darkens the image */
+	public static final int MULTIPLY = 0x2;
+	/** Inverse of multiply, brightens the image */
+	public static final int SCREEN = 0x3;
+	/** Source over destination, but the source color is already multiplied by its alpha */
+	public static final int PREMULTIPLIED = 0x4;
+	/** Replaces the destination without looking at the alpha. What the renderers used to do */
+	public static final int REPLACE = 0x5;
+	/** Replaces the destination like REPLACE, but leaves it alone where the source is fully transparent. The renderers draw images with it when alpha blending is turned off, so the images keep their holes */
+	public static final int CUT_OUT = 0x6;
+
+	private Blending() {}
+
+	/**
+	 * Blends a color onto another
+	 *
+	 * @param src
+	 *            The color to draw
+	 * @param dst
+	 *            The color that is already there
+	 * @param mode
+	 *            The blend mode (one of the constants in this class)
+	 * @return The resulting color
+	 */
+	public static int blend(int src, int dst, int mode) {
+		switch (mode) {
+			case ADD:
+				return add(src, dst);
+			case MULTIPLY:
+				return multiply(src, dst);
+			case SCREEN:
+				return screen(src, dst);
+			case PREMULTIPLIED:
+				return overPremultiplied(src, dst);
+			case REPLACE:
+				return src;
+			case CUT_OUT:
+				return src >>> 24 == 0 ? dst : src;
+			default:
+				return over(src, dst);
+		}
+	}
+
+	/**
+	 * Checks if drawing a fully transparent color leaves the destination as it is. That's not the case for REPLACE, which writes the transparent color, and PREMULTIPLIED, which adds the color channels
+	 *
+	 * @param mode
+	 *            The blend mode
+	 * @return True if colors with alpha 0 can be skipped
+	 */
+	public static boolean skipsTransparent(int mode) {
+		return mode != REPLACE && mode != PREMULTIPLIED;
+	}
+
+	/**
+	 * Blends a single color over a run of pixels
+	 *
+	 * @param dst
+	 *            The pixels to draw on
+	 * @param off
+	 *            The index of the first pixel
+	 * @param len
+	 *            The amount of pixels
+	 * @param color
+	 *            The color to draw
+	 * @param mode
+	 *            The blend mode
+	 * @param opaqueDst
+	 *            If the destination has no alpha channel. Its alpha bits are treated as 0xFF then
+	 */
+	public static void blendSpan(int[] dst, int off, int len, int color, int mode, boolean opaqueDst) {
+		int dm = opaqueDst ? 0xFF000000 : 0;
+		for (int i = off, end = off + len; i < end; i++)
+			dst[i] = blend(color, dst[i] | dm, mode);
+	}
+
+	/**
+	 * Blends a row of source pixels onto a row of destination pixels. Fully transparent pixels are skipped in the modes where they don't change anything ({@link #skipsTransparent(int)}) and fully opaque ones are copied when drawing normally.
+	 *
+	 * @param src
+	 *            The source pixels
+	 * @param soff
+	 *            The index of the first source pixel
+	 * @param dst
+	 *            The destination pixels
+	 * @param doff
+	 *            The index of the first destination pixel
+	 * @param len
+	 *            The amount of pixels
+	 * @param alphaMask
+	 *            Gets or'ed onto every source pixel. ALPHA_MASK for sources without an alpha channel, 0 otherwise
+	 * @param mode
+	 *            The blend mode
+	 * @param opaqueDst
+	 *            If the destination has no alpha channel
+	 */
+	public static void blendRow(int[] src, int soff, int[] dst, int doff, int len, int alphaMask, int mode, boolean opaqueDst) {
+		int dm = opaqueDst ? 0xFF000000 : 0;
+		if (mode == NORMAL) {
+			for (int i = 0; i < len; i++) {
+				int c = src[soff + i] | alphaMask;
+				int a = c >>> 24;
+				if (a == 0xFF) dst[doff + i] = c;
+				else if (a != 0) dst[doff + i] = over(c, dst[doff + i] | dm);
+			}
+		} else {
+			for (int i = 0; i < len; i++) {
+				int c = src[soff + i] | alphaMask;
+				if (c >>> 24 != 0 || !skipsTransparent(mode)) dst[doff + i] = blend(c, dst[doff + i] | dm, mode);
+			}
+		}
+	}
+
+	/**
+	 * Source over destination
+	 *
+	 * @param src
+	 *            The color to draw
+	 * @param dst
+	 *            The color that is already there
+	 * @return The resulting color
+	 */
+	public static int over(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0xFF) return src;
+		if (a == 0) return dst;
+		int da = dst >>> 24;
+		if (da == 0xFF) {
+			int w = a + (a >> 7); // 0xFF -> 0x100, so full alpha doesn't lose a bit
+			int iw = 0x100 - w;
+			int rb = ((src & 0xFF00FF) * w + (dst & 0xFF00FF) * iw) >>> 8 & 0xFF00FF;
+			int g = ((src & 0xFF00) * w + (dst & 0xFF00) * iw) >>> 8 & 0xFF00;
+			return 0xFF000000 | rb | g;
+		}
+		if (da == 0) return src;
+
+		// Both are translucent, we need the real formula
+		int dw = mul255(da, 0xFF - a);
+		int oa = a + dw;
+		int r = ((src >> 16 & 0xFF) * a + (dst >> 16 & 0xFF) * dw) / oa;
+		int g = ((src >> 8 & 0xFF) * a + (dst >> 8 & 0xFF) * dw) / oa;
+		int b = ((src & 0xFF) * a + (dst & 0xFF) * dw) / oa;
+		return oa << 24 | r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * Source over destination with a premultiplied source
+	 *
+	 * @param src
+	 *            The premultiplied color to draw
+	 * @param dst
+	 *            The premultiplied color that is already there
+	 * @return The resulting premultiplied color
+	 */
+	public static int overPremultiplied(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0xFF) return src;
+		int iw = 0x100 - (a + (a >> 7));
+		int rb = (src & 0xFF00FF) + (((dst & 0xFF00FF) * iw >>> 8) & 0xFF00FF);
+		int g = (src & 0xFF00) + (((dst & 0xFF00) * iw >>> 8) & 0xFF00);
+		int oa = a + mul255(dst >>> 24, 0xFF - a);
+		return oa << 24 | saturate(rb, g);
+	}
+
+	/**
+	 * Adds the source weighted by its alpha to the destination. Channels saturate at 0xFF
+	 *
+	 * @param src
+	 *            The color to add
+	 * @param dst
+	 *            The color that is already there
+	 * @return The resulting color
+	 */
+	public static int add(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0) return dst;
+		int w = a + (a >> 7);
+		int rb = (dst & 0xFF00FF) + ((src & 0xFF00FF) * w >>> 8 & 0xFF00FF);
+		int g = (dst & 0xFF00) + ((src & 0xFF00) * w >>> 8 & 0xFF00);
+		int oa = Math.min(0xFF, (dst >>> 24) + a);
+		return oa << 24 | saturate(rb, g);
+	}
+
+	/**
+	 * Multiplies the channels of the source with the destination
+	 *
+	 * @param src
+	 *            The color to multiply with
+	 * @param dst
+	 *            The color that is already there
+	 * @return The resulting color
+	 */
+	public static int multiply(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0) return dst;
+		int r = mul255(src >> 16 & 0xFF, dst >> 16 & 0xFF);
+		int g = mul255(src >> 8 & 0xFF, dst >> 8 & 0xFF);
+		int b = mul255(src & 0xFF, dst & 0xFF);
+		return over(a << 24 | r << 16 | g << 8 | b, dst);
+	}
+
+	/**
+	 * Screens the source onto the destination: 1 - (1 - src) * (1 - dst)
+	 *
+	 * @param src
+	 *            The color to screen with
+	 * @param dst
+	 *            The color that is already there
+	 * @return The resulting color
+	 */
+	public static int screen(int src, int dst) {
+		int a = src >>> 24;
+		if (a == 0) return dst;
+		int r = 0xFF - mul255(0xFF - (src >> 16 & 0xFF), 0xFF - (dst >> 16 & 0xFF));
+		int g = 0xFF - mul255(0xFF - (src >> 8 & 0xFF), 0xFF - (dst >> 8 & 0xFF));
+		int b = 0xFF - mul255(0xFF - (src & 0xFF), 0xFF - (dst & 0xFF));
+		return over(a << 24 | r << 16 | g << 8 | b, dst);
+	}
+
+	/**
+	 * Multiplies the color channels with the alpha of the color
+	 *
+	 * @param color
+	 *            The non premultiplied color
+	 * @return The premultiplied color
+	 */
+	public static int premultiply(int color) {
+		int a = color >>> 24;
+		if (a == 0xFF) return color;
+		int w = a + (a >> 7);
+		return a << 24 | ((color & 0xFF00FF) * w >>> 8 & 0xFF00FF) | ((color & 0xFF00) * w >>> 8 & 0xFF00);
+	}
+
+	/**
+	 * Reverts {@link #premultiply(int)}. Some precision is lost for very translucent colors
+	 *
+	 * @param color
+	 *            The premultiplied color
+	 * @return The non premultiplied color
+	 */
+	public static int unpremultiply(int color) {
+		int a = color >>> 24;
+		if (a == 0xFF || a == 0) return color;
+		int r = Math.min(0xFF, (color >> 16 & 0xFF) * 0xFF / a);
+		int g = Math.min(0xFF, (color >> 8 & 0xFF) * 0xFF / a);
+		int b = Math.min(0xFF, (color & 0xFF) * 0xFF / a);
+		return a << 24 | r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * Multiplies two values in the range 0-255 and divides by 255, rounded correctly
+	 *
+	 * @param a
+	 *            The first value
+	 * @param b
+	 *            The second value
+	 * @return a * b / 255
+	 */
+	public static int mul255(int a, int b) {
+		int t = a * b + 0x80;
+		return ((t >> 8) + t) >> 8;
+	}
+
+	/**
+	 * Clamps the red/blue pair and the green channel to 0xFF after an addition that might have overflowed into the bit above each channel
+	 */
+	private static int saturate(int rb, int g) {
+		int orb = rb & 0x01000100;
+		int og = g & 0x010000;
+		return (rb | (orb - (orb >>> 8))) & 0xFF00FF | (g | (og - (og >>> 8))) & 0xFF00;
+	}
+
+}
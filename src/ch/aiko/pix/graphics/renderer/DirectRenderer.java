@@ -0,0 +1,343 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * Renders into an IntBuffer outside of the java heap instead of an int array. The buffer can be a memory mapped file, so other processes or native code can read the frames without them being copied.
+ *
+ * The buffer contains one ARGB int per pixel in native byte order, row by row, without any padding.
+ *
+ * Fills, images and text are drawn a row at a time with bulk gets and puts. Single pixels, steep thin lines and the other primitives made of single pixels go through the buffer one pixel at a time, which is slower than in {@link PixRenderer}. There is no int array behind the buffer, so {@link #getFrameBuffer()} returns null: effects ({@link ch.aiko.pix.graphics.effects.PostProcessor}) and {@link IntegerScaler} can't be used with this renderer.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class DirectRenderer extends Renderer {
+
+	/** The loops that fill and blend rows of pixels */
+	private static final PixelOps OPS = PixelOps.get();
+
+	private final IntBuffer buffer;
+	/** A second view of the buffer for bulk reads and writes, so the position of the one handed out never changes */
+	private final IntBuffer view;
+
+	/** Only created if the frames get drawn to the screen */
+	private BufferedImage img;
+	/** Holds the pixels already on the screen while blending a row */
+	private int[] dstRow;
+
+	/**
+	 * Creates a renderer with a new direct buffer
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 */
+	public DirectRenderer(int w, int h) {
+		this(w, h, ByteBuffer.allocateDirect(w * h * 4).order(ByteOrder.nativeOrder()).asIntBuffer());
+	}
+
+	/**
+	 * Creates a renderer that draws into a memory mapped file. The file gets created or resized to exactly one frame
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 * @param file
+	 *            The file to map
+	 * @throws IOException
+	 *             If the file can't be mapped
+	 */
+	public DirectRenderer(int w, int h, File file) throws IOException {
+		this(w, h, map(file, (long) w * h * 4));
+	}
+
+	/**
+	 * Creates a renderer that draws into the given buffer
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 * @param buffer
+	 *            The buffer, needs space for at least w * h ints starting at index 0
+	 */
+	public DirectRenderer(int w, int h, IntBuffer buffer) {
+		super(w, h);
+		if (buffer.capacity() < w * h) throw new IllegalArgumentException("Buffer too small: " + buffer.capacity() + " < " + w * h);
+		this.buffer = buffer;
+		this.view = buffer.duplicate();
+		dstRow = new int[w];
+	}
+
+	private static IntBuffer map(File file, long size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fc = raf.getChannel()) {
+			raf.setLength(size);
+			return fc.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder()).asIntBuffer(); // The mapping stays valid after closing the channel
+		}
+	}
+
+	/**
+	 * Gets the buffer containing the frame. Don't change its contents while a frame is drawn
+	 *
+	 * @return The buffer, one ARGB int per pixel
+	 */
+	public IntBuffer getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public boolean supportsAlpha() {
+		return true;
+	}
+
+	@Override
+	public void drawPixel(int x, int y, int color) {
+		x += translateX;
+		y += translateY;
+		if (!inClip(x, y) || color >>> 24 == 0 && Blending.skipsTransparent(blendMode)) return;
+		markDirty(x, y, x + 1, y + 1);
+		int i = x + y * width;
+		if (color >>> 24 == 0xFF && blendMode == Blending.NORMAL || blendMode == Blending.REPLACE) buffer.put(i, color);
+		else buffer.put(i, Blending.blend(color, buffer.get(i) | ALPHA_MASK, blendMode));
+	}
+
+	@Override
+	public void copyPixels(int[] dst) {
+		view.position(0);
+		view.get(dst, 0, width * height);
+	}
+
+	/**
+	 * Reads a pixel
+	 *
+	 * @param x
+	 *            The x coordinate
+	 * @param y
+	 *            The y coordinate
+	 * @return The color of the pixel or -1 if it's outside of the screen
+	 */
+	public int readPixel(int x, int y) {
+		x += translateX;
+		y += translateY;
+		if (x < 0 || x >= width || y < 0 || y >= height) return -1;
+		return buffer.get(x + y * width);
+	}
+
+	@Override
+	public void clear(int color) {
+		if (clearOnlyDirty()) {
+			for (int i = 0; i < lastDirty.size(); i++) {
+				Rectangle r = lastDirty.get(i);
+				int x0 = Math.max(r.x, clipX0), y0 = Math.max(r.y, clipY0);
+				int x1 = Math.min(r.x + r.width, clipX1), y1 = Math.min(r.y + r.height, clipY1);
+				if (x0 >= x1 || y0 >= y1) continue;
+				markCleared(x0, y0, x1, y1);
+				fillBlock(x0, y0, x1, y1, color, Blending.REPLACE);
+			}
+		} else if (clipX0 < clipX1 && clipY0 < clipY1) {
+			markCleared(clipX0, clipY0, clipX1, clipY1);
+			fillBlock(clipX0, clipY0, clipX1, clipY1, color, Blending.REPLACE);
+		}
+	}
+
+	@Override
+	public void fillRect(int x, int y, int w, int h, int color) {
+		fillArea(x, y, x + w + 1, y + h + 1, color); // The right and bottom edge are part of the rectangle, like in PixRenderer
+	}
+
+	@Override
+	public void drawRect(int x, int y, int w, int h, int color) {
+		fillArea(x, y, x + w, y + 1, color);
+		fillArea(x, y + h, x + w, y + h + 1, color);
+		fillArea(x, y, x + 1, y + h, color);
+		fillArea(x + w, y, x + w + 1, y + h, color);
+	}
+
+	@Override
+	public void fastHorizontalLine(int x, int y, int w, int thickness, int color) {
+		fillArea(x, y - thickness / 2, x + w, y + thickness / 2 + 1, color);
+	}
+
+	@Override
+	public void fastVerticalLine(int x, int y, int h, int thickness, int color) {
+		fillArea(x - thickness / 2, y, x + thickness / 2 + 1, y + h, color);
+	}
+
+	@Override
+	protected void fillSpan(int x, int y, int w, int color) {
+		fillArea(x, y, x + w, y + 1, color);
+	}
+
+	/**
+	 * Fills the area between (x0|y0) inclusive and (x1|y1) exclusive, translated and clipped once
+	 */
+	private void fillArea(int x0, int y0, int x1, int y1, int color) {
+		if (color >>> 24 == 0 && Blending.skipsTransparent(blendMode)) return;
+		x0 = Math.max(x0 + translateX, clipX0);
+		y0 = Math.max(y0 + translateY, clipY0);
+		x1 = Math.min(x1 + translateX, clipX1);
+		y1 = Math.min(y1 + translateY, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		fillBlock(x0, y0, x1, y1, color, blendMode);
+	}
+
+	/**
+	 * Fills an area that is already translated and clipped. Every row is built in an array and written with one bulk put
+	 */
+	private void fillBlock(int x0, int y0, int x1, int y1, int color, int mode) {
+		int w = x1 - x0;
+		int[] row = getRowBuffer(w);
+		boolean direct = color >>> 24 == 0xFF && mode == Blending.NORMAL || mode == Blending.REPLACE;
+		if (direct) OPS.fill(row, 0, w, color);
+		for (int y = y0; y < y1; y++) {
+			view.position(x0 + y * width);
+			if (!direct) {
+				view.get(row, 0, w);
+				OPS.blendSpan(row, 0, w, color, mode, true);
+				view.position(x0 + y * width);
+			}
+			view.put(row, 0, w);
+		}
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y) {
+		drawImage(PixImage.wrap(img), x, y);
+	}
+
+	@Override
+	public void drawImage(PixImage img, int x, int y) {
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + img.getWidth(), clipX1), y1 = Math.min(y + img.getHeight(), clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		int len = x1 - x0;
+		int[] src = img.getPixels();
+		for (int yy = y0; yy < y1; yy++)
+			blendRow(src, img.getOffset() + (x0 - x) + (yy - y) * img.getScan(), img.getAlphaMask(), x0, yy, len);
+	}
+
+	@Override
+	public void drawImage(PixImage img, int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) return;
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + w, clipX1), y1 = Math.min(y + h, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		PixImage src = img.getMipmap(w, h);
+		long du = ((long) src.getWidth() << 16) / w, dv = ((long) src.getHeight() << 16) / h;
+		int len = x1 - x0;
+		int[] row = getRowBuffer(len);
+		long u = du / 2 + (x0 - x) * du;
+		for (int yy = y0; yy < y1; yy++) {
+			Sampling.sampleSpan(src, row, 0, len, u, dv / 2 + (yy - y) * dv, du, 0, filter);
+			blendRow(row, 0, 0, x0, yy, len);
+		}
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y, int x1, int y1, int w, int h) {
+		drawImage(PixImage.wrap(img).getSubImage(x1, y1, w, h), x, y);
+	}
+
+	@Override
+	protected void drawRow(int[] row, int x, int y, int len) {
+		blendRow(row, 0, 0, x, y, len);
+	}
+
+	/**
+	 * Blends colors onto a row of the buffer: reads the row, blends and writes it back
+	 */
+	private void blendRow(int[] src, int off, int alphaMask, int x, int y, int len) {
+		if (dstRow.length < len) dstRow = new int[len];
+		view.position(x + y * width);
+		view.get(dstRow, 0, len);
+		OPS.blendRow(src, off, dstRow, 0, len, alphaMask, blendMode, true);
+		view.position(x + y * width);
+		view.put(dstRow, 0, len);
+	}
+
+	/**
+	 * Blends the coverage of a glyph onto the buffer
+	 */
+	@Override
+	protected void drawGlyph(Glyph g, int x, int y, int color) {
+		if (g.data == null) return;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + g.width, clipX1), y1 = Math.min(y + g.height, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		int a = color >>> 24;
+		int rgb = color & 0xFFFFFF;
+		boolean direct = a == 0xFF && blendMode == Blending.NORMAL || blendMode == Blending.REPLACE;
+		for (int yy = y0; yy < y1; yy++) {
+			int s = g.offset + (x0 - x) + (yy - y) * g.scan;
+			for (int d = x0 + yy * width, end = x1 + yy * width; d < end; d++, s++) {
+				int c = g.data[s];
+				if (c == 0) continue;
+				if (c == 0xFF && direct) buffer.put(d, color);
+				else buffer.put(d, Blending.blend(Blending.mul255(a, c) << 24 | rgb, buffer.get(d) | ALPHA_MASK, blendMode));
+			}
+		}
+	}
+
+	@Override
+	public int getTextWidth(String s, Font f) {
+		return TextMetrics.get(f).getWidth(s);
+	}
+
+	@Override
+	public int fitText(String text, int width, Font f) {
+		return TextMetrics.get(f).fit(text, width);
+	}
+
+	@Override
+	public int[] getTextPrefixWidths(String text, Font f) {
+		return TextMetrics.get(f).getPrefixWidths(text);
+	}
+
+	/**
+	 * Copies the frame into an image and draws it. Only needed if the frames should also be shown on the screen, consumers of the buffer don't need this
+	 */
+	@Override
+	public void finishUp(Graphics g, int w, int h) {
+		g.drawImage(getImage(), 0, 0, w, h, null);
+	}
+
+	/**
+	 * Copies the current frame into an image
+	 *
+	 * @return The image, reused by every call
+	 */
+	public BufferedImage getImage() {
+		if (img == null) img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		view.position(0);
+		view.get(((DataBufferInt) img.getRaster().getDataBuffer()).getData(), 0, width * height);
+		return img;
+	}
+
+}
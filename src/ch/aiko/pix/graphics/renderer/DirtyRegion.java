@@ -0,0 +1,152 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Rectangle;
+
+/**
+ * A small set of rectangles covering the pixels that changed. Rectangles that overlap get merged and once there are too many, the new one is merged with the one it grows the least, so adding stays cheap even when it's done for every pixel.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class DirtyRegion {
+
+	/** How many rectangles are kept before they get merged */
+	public static final int MAX_RECTANGLES = 16;
+
+	/** x0, y0, x1, y1 for each rectangle. The right and bottom edges are exclusive */
+	private int[] rects = new int[4 * MAX_RECTANGLES];
+	private int count;
+
+	/**
+	 * Adds an area to the region
+	 *
+	 * @param x0
+	 *            The left edge (inclusive)
+	 * @param y0
+	 *            The top edge (inclusive)
+	 * @param x1
+	 *            The right edge (exclusive)
+	 * @param y1
+	 *            The bottom edge (exclusive)
+	 */
+	public void add(int x0, int y0, int x1, int y1) {
+		if (x0 >= x1 || y0 >= y1) return;
+
+		// Most of the time the same area gets hit again and again, check the newest rectangle first
+		for (int i = (count - 1) * 4; i >= 0; i -= 4) {
+			if (rects[i] <= x0 && rects[i + 1] <= y0 && rects[i + 2] >= x1 && rects[i + 3] >= y1) return;
+		}
+
+		long area = (long) (x1 - x0) * (y1 - y0);
+		int best = -1;
+		long bestGrowth = Long.MAX_VALUE;
+		for (int i = 0; i < count * 4; i += 4) {
+			int ux0 = Math.min(x0, rects[i]), uy0 = Math.min(y0, rects[i + 1]);
+			int ux1 = Math.max(x1, rects[i + 2]), uy1 = Math.max(y1, rects[i + 3]);
+			long growth = (long) (ux1 - ux0) * (uy1 - uy0) - area - (long) (rects[i + 2] - rects[i]) * (rects[i + 3] - rects[i + 1]);
+			if (growth < bestGrowth) {
+				bestGrowth = growth;
+				best = i;
+			}
+		}
+
+		// Merge if it doesn't cover any more pixels than keeping them apart or if there is no space left
+		if (best >= 0 && (bestGrowth <= 0 || count == MAX_RECTANGLES)) {
+			x0 = Math.min(x0, rects[best]);
+			y0 = Math.min(y0, rects[best + 1]);
+			x1 = Math.max(x1, rects[best + 2]);
+			y1 = Math.max(y1, rects[best + 3]);
+			remove(best);
+			add(x0, y0, x1, y1); // The bigger rectangle might swallow others now
+			return;
+		}
+
+		int i = count++ * 4;
+		rects[i] = x0;
+		rects[i + 1] = y0;
+		rects[i + 2] = x1;
+		rects[i + 3] = y1;
+	}
+
+	/**
+	 * Adds all the areas of another region to this one
+	 *
+	 * @param other
+	 *            The region to add
+	 */
+	public void add(DirtyRegion other) {
+		for (int i = 0; i < other.count * 4; i += 4)
+			add(other.rects[i], other.rects[i + 1], other.rects[i + 2], other.rects[i + 3]);
+	}
+
+	/**
+	 * Replaces the areas of this region with the ones of another
+	 *
+	 * @param other
+	 *            The region to copy
+	 */
+	public void set(DirtyRegion other) {
+		System.arraycopy(other.rects, 0, rects, 0, other.count * 4);
+		count = other.count;
+	}
+
+	/**
+	 * Removes all areas
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Checks if nothing is dirty
+	 *
+	 * @return True if there are no areas in this region
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * The amount of rectangles in this region
+	 *
+	 * @return The amount of rectangles
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Gets one of the rectangles
+	 *
+	 * @param i
+	 *            The index of the rectangle
+	 * @return The rectangle
+	 */
+	public Rectangle get(int i) {
+		i *= 4;
+		return new Rectangle(rects[i], rects[i + 1], rects[i + 2] - rects[i], rects[i + 3] - rects[i + 1]);
+	}
+
+	/**
+	 * Gets the smallest rectangle containing all the areas
+	 *
+	 * @return The bounds or an empty rectangle if the region is empty
+	 */
+	public Rectangle getBounds() {
+		if (count == 0) return new Rectangle();
+		int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+		for (int i = 0; i < count * 4; i += 4) {
+			x0 = Math.min(x0, rects[i]);
+			y0 = Math.min(y0, rects[i + 1]);
+			x1 = Math.max(x1, rects[i + 2]);
+			y1 = Math.max(y1, rects[i + 3]);
+		}
+		return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	private void remove(int i) {
+		count--;
+		System.arraycopy(rects, i + 4, rects, i, count * 4 - i);
+	}
+
+}
@@ -0,0 +1,245 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rasterizes every glyph of a font once and keeps its coverage (0-255 per pixel) in int pages, together with the advances needed to lay out text. Text can then be drawn by blending the coverage straight into the pixels, without creating a Graphics object per call.
+ *
+ * Glyphs are created lazily and the cache can be used by several threads at once.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class GlyphCache {
+
+	/** The width and height of an atlas page */
+	public static final int PAGE_SIZE = 256;
+
+	/** One cache per font */
+	private static final ConcurrentHashMap<Font, GlyphCache> caches = new ConcurrentHashMap<Font, GlyphCache>();
+
+	/** Same as the context of a BufferedImage graphics object: no antialiasing, integer metrics */
+	private final FontRenderContext frc = new FontRenderContext(null, false, false);
+
+	private final Font font;
+	private final int ascent, descent, height;
+	private final boolean kerning;
+
+	/** The glyphs in 256 blocks of 256 chars, created when needed */
+	private final Glyph[][] glyphs = new Glyph[256][];
+	/** The kerning between two chars (first << 16 | second) */
+	private final HashMap<Integer, Float> kernings = new HashMap<Integer, Float>();
+
+	/** The page new glyphs get packed into and the current shelf in it */
+	private int[] page;
+	private int shelfX, shelfY, shelfHeight;
+
+	/**
+	 * Gets the glyph cache of a font, creates it if needed
+	 *
+	 * @param f
+	 *            The font
+	 * @return The cache for the font
+	 */
+	public static GlyphCache get(Font f) {
+		GlyphCache c = caches.get(f);
+		if (c == null) {
+			c = new GlyphCache(f);
+			GlyphCache old = caches.putIfAbsent(f, c);
+			if (old != null) c = old;
+		}
+		return c;
+	}
+
+	private GlyphCache(Font f) {
+		font = f;
+		BufferedImage tmp = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = tmp.createGraphics();
+		FontMetrics fm = g.getFontMetrics(f);
+		ascent = fm.getAscent();
+		descent = fm.getDescent();
+		height = fm.getHeight();
+		g.dispose();
+		kerning = TextAttribute.KERNING_ON.equals(f.getAttributes().get(TextAttribute.KERNING));
+	}
+
+	/**
+	 * Gets the glyph of a char, rasterizes it if it hasn't been used yet
+	 *
+	 * @param c
+	 *            The char
+	 * @return The glyph
+	 */
+	public Glyph getGlyph(char c) {
+		Glyph[] block = glyphs[c >> 8];
+		Glyph g = block == null ? null : block[c & 0xFF];
+		return g != null ? g : createGlyph(c);
+	}
+
+	/**
+	 * Gets how much the pen has to be moved before drawing a char that follows another one. Always 0 unless kerning is turned on for the font
+	 *
+	 * @param previous
+	 *            The char before, or -1 if c is the first one
+	 * @param c
+	 *            The char
+	 * @return The kerning in pixels
+	 */
+	public float getKerning(int previous, char c) {
+		if (!kerning || previous < 0) return 0;
+		return loadKerning((char) previous, c);
+	}
+
+	/**
+	 * Measures a string
+	 *
+	 * @param s
+	 *            The string to measure
+	 * @return The width of the string in pixels
+	 */
+	public int getWidth(String s) {
+		float w = 0;
+		int previous = -1;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			w += getKerning(previous, c) + getGlyph(c).advance;
+			previous = c;
+		}
+		return (int) w;
+	}
+
+	/**
+	 * Gets the distance from the top of a line to the baseline
+	 *
+	 * @return The ascent in pixels
+	 */
+	public int getAscent() {
+		return ascent;
+	}
+
+	/**
+	 * Gets the distance from the baseline to the bottom of a line
+	 *
+	 * @return The descent in pixels
+	 */
+	public int getDescent() {
+		return descent;
+	}
+
+	/**
+	 * Gets the height of a line
+	 *
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the font this cache is for
+	 *
+	 * @return The font
+	 */
+	public Font getFont() {
+		return font;
+	}
+
+	private synchronized float loadKerning(char a, char b) {
+		Integer key = a << 16 | b;
+		Float k = kernings.get(key);
+		if (k == null) {
+			float pair = (float) font.layoutGlyphVector(frc, new char[] { a, b }, 0, 2, Font.LAYOUT_LEFT_TO_RIGHT).getGlyphPosition(1).getX();
+			k = pair - getGlyph(a).advance;
+			kernings.put(key, k);
+		}
+		return k;
+	}
+
+	private synchronized Glyph createGlyph(char c) {
+		Glyph[] block = glyphs[c >> 8];
+		if (block == null) block = glyphs[c >> 8] = new Glyph[256];
+		if (block[c & 0xFF] != null) return block[c & 0xFF]; // Another thread was faster
+
+		GlyphVector gv = font.createGlyphVector(frc, new char[] { c });
+		float advance = gv.getGlyphMetrics(0).getAdvance();
+		Rectangle b = gv.getPixelBounds(frc, 0, 0);
+		if (b.isEmpty()) return block[c & 0xFF] = new Glyph(null, 0, 0, 0, 0, 0, 0, advance);
+
+		BufferedImage img = new BufferedImage(b.width, b.height, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = img.createGraphics();
+		g.setColor(Color.WHITE);
+		g.drawGlyphVector(gv, -b.x, -b.y);
+		g.dispose();
+		byte[] gray = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+
+		int[] data;
+		int off, scan;
+		if (b.width > PAGE_SIZE || b.height > PAGE_SIZE) {
+			// Huge glyphs get their own array
+			data = new int[b.width * b.height];
+			off = 0;
+			scan = b.width;
+		} else {
+			if (page == null || shelfX + b.width > PAGE_SIZE) {
+				shelfX = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+			if (page == null || shelfY + b.height > PAGE_SIZE) {
+				page = new int[PAGE_SIZE * PAGE_SIZE];
+				shelfX = shelfY = shelfHeight = 0;
+			}
+			data = page;
+			off = shelfX + shelfY * PAGE_SIZE;
+			scan = PAGE_SIZE;
+			shelfX += b.width;
+			shelfHeight = Math.max(shelfHeight, b.height);
+		}
+		for (int y = 0; y < b.height; y++) {
+			for (int x = 0; x < b.width; x++)
+				data[off + x + y * scan] = gray[x + y * b.width] & 0xFF;
+		}
+
+		return block[c & 0xFF] = new Glyph(data, off, scan, b.width, b.height, b.x, b.y, advance);
+	}
+
+	/**
+	 * The coverage of a single rasterized glyph
+	 */
+	public static final class Glyph {
+
+		/** The page containing the coverage, 0-255 per pixel. null if the glyph is invisible */
+		public final int[] data;
+		/** The index of the upper left pixel and the distance between two rows in data */
+		public final int offset, scan;
+		/** The size of the glyph in pixels */
+		public final int width, height;
+		/** Where the upper left pixel is drawn, relative to the pen position on the baseline */
+		public final int left, top;
+		/** How far the pen moves after the glyph */
+		public final float advance;
+
+		Glyph(int[] data, int offset, int scan, int width, int height, int left, int top, float advance) {
+			this.data = data;
+			this.offset = offset;
+			this.scan = scan;
+			this.width = width;
+			this.height = height;
+			this.left = left;
+			this.top = top;
+			this.advance = advance;
+		}
+	}
+
+}
@@ -3,10 +3,10 @@ package ch.aiko.pix.graphics.renderer;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.GraphicsEnvironment;
-import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+
 // Soon be gone
 @Deprecated
 public class GraphicsRenderer extends Renderer {
@@ -16,7 +16,7 @@ public class GraphicsRenderer extends Renderer {
 
 	public GraphicsRenderer(int w, int h) {
 		super(w, h);
-		img = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(w, h, Transparency.OPAQUE);
+		img = createScreenImage(w, h);
 		this.g = img.getGraphics();
 	}
 
@@ -27,19 +27,22 @@ public class GraphicsRenderer extends Renderer {
 
 	@Override
 	public void drawPixel(int x, int y, int color) {
+		applyClip();
 		g.setColor(new Color(color));
-		g.drawRect(x, y, 1, 1);
+		g.drawRect(x + translateX, y + translateY, 1, 1);
 	}
 
 	@Override
 	public void fillRect(int x, int y, int w, int h, int color) {
+		applyClip();
 		g.setColor(new Color(color));
-		g.fillRect(x, y, w, h);
+		g.fillRect(x + translateX, y + translateY, w, h);
 	}
 
 	@Override
 	public void clear(int color) {
 		// g.clearRect(0, 0, width, height);
+		applyClip();
 		g.setColor(new Color(color));
 		g.fillRect(0, 0, width, height);
 	}
@@ -48,11 +51,37 @@ public class GraphicsRenderer extends Renderer {
 		g.drawImage(img, 0, 0, w, h, null);
 	}
 
+	/**
+	 * Reads the pixels back from the image. The image may be in any format, so this converts every pixel and is slow
+	 */
+	@Override
+	public void copyPixels(int[] dst) {
+		img.getRGB(0, 0, width, height, dst, 0, width);
+	}
+
 	@Override
 	public void drawText(int x, int y, String text, int color, Font f) {
+		applyClip();
 		g.setColor(new Color(color));
 		g.setFont(f);
-		g.drawString(text, x, y);
+		g.drawString(text, x + translateX, y + translateY);
+	}
+
+	/**
+	 * Only used by subclasses that draw text through the glyph cache, sets the pixels a glyph covers at least half
+	 */
+	@Override
+	protected void drawGlyph(Glyph gl, int x, int y, int color) {
+		if (gl.data == null) return;
+		applyClip();
+		g.setColor(new Color(color));
+		for (int yy = 0; yy < gl.height; yy++)
+			for (int xx = 0; xx < gl.width; xx++)
+				if (gl.data[gl.offset + xx + yy * gl.scan] >= 0x80) g.fillRect(x + xx, y + yy, 1, 1);
+	}
+
+	private void applyClip() {
+		g.setClip(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
 	}
 
 	@Override
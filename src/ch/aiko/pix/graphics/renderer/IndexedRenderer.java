@@ -0,0 +1,315 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * Draws into one byte per pixel instead of an int. Every byte is an index into a {@link Palette}, the colors only get looked up once per frame in {@link #finishUp(Graphics, int, int)}. Clearing and filling move a quarter of the memory, and changing the shown colors of the palette changes the whole screen for free.
+ *
+ * There is no alpha: pixels with at least half alpha are drawn with the closest color of the palette, the others aren't drawn at all. The blend mode is ignored.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class IndexedRenderer extends Renderer {
+
+	private final byte[] indices;
+	private Palette palette;
+
+	/** The frame expanded to colors */
+	private BufferedImage img;
+	private int[] pixels;
+	/** The shown colors of the palette, always 256 so every byte is a valid index */
+	private final int[] lut = new int[Palette.MAX_COLORS];
+	/** How many entries of lut come from the palette, the others are black */
+	private int lutSize = 0;
+
+	/**
+	 * Creates a renderer
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 * @param palette
+	 *            The colors that can be drawn
+	 */
+	public IndexedRenderer(int w, int h, Palette palette) {
+		super(w, h);
+		this.palette = palette;
+		indices = new byte[w * h];
+	}
+
+	/**
+	 * Gets the palette
+	 *
+	 * @return The palette
+	 */
+	public Palette getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Changes the palette. What is already drawn keeps its indices, so it shows up in the colors of the new palette
+	 *
+	 * @param palette
+	 *            The new palette
+	 */
+	public void setPalette(Palette palette) {
+		this.palette = palette;
+		markAllDirty();
+	}
+
+	/**
+	 * Gets the palette index of every pixel, row by row
+	 *
+	 * @return The indices
+	 */
+	public byte[] getIndices() {
+		return indices;
+	}
+
+	@Override
+	public boolean supportsAlpha() {
+		return false;
+	}
+
+	@Override
+	public void drawPixel(int x, int y, int color) {
+		if (color >>> 24 < 0x80) return;
+		drawPixelIndex(x, y, palette.indexOf(color));
+	}
+
+	/**
+	 * Sets a pixel to a palette index
+	 *
+	 * @param x
+	 *            The x coordinate
+	 * @param y
+	 *            The y coordinate
+	 * @param index
+	 *            The index in the palette
+	 */
+	public void drawPixelIndex(int x, int y, int index) {
+		x += translateX;
+		y += translateY;
+		if (!inClip(x, y)) return;
+		markDirty(x, y, x + 1, y + 1);
+		indices[x + y * width] = (byte) index;
+	}
+
+	/**
+	 * Fills a rectangle with a palette index
+	 *
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 * @param w
+	 *            The width of the rectangle
+	 * @param h
+	 *            The height of the rectangle
+	 * @param index
+	 *            The index in the palette
+	 */
+	public void fillRectIndex(int x, int y, int w, int h, int index) {
+		x += translateX;
+		y += translateY;
+		fillBlock(Math.max(x, clipX0), Math.max(y, clipY0), Math.min(x + w, clipX1), Math.min(y + h, clipY1), (byte) index, false);
+	}
+
+	@Override
+	public void clear(int color) {
+		clearIndex(palette.indexOf(color));
+	}
+
+	/**
+	 * Sets the whole clip to a palette index. Only the areas that were drawn to in the last frame get cleared if the rest is still clear (see {@link #clearOnlyDirty()})
+	 *
+	 * @param index
+	 *            The index in the palette
+	 */
+	public void clearIndex(int index) {
+		if (clearOnlyDirty()) {
+			for (int i = 0; i < lastDirty.size(); i++) {
+				Rectangle r = lastDirty.get(i);
+				fillBlock(Math.max(r.x, clipX0), Math.max(r.y, clipY0), Math.min(r.x + r.width, clipX1), Math.min(r.y + r.height, clipY1), (byte) index, true);
+			}
+		} else fillBlock(clipX0, clipY0, clipX1, clipY1, (byte) index, true);
+	}
+
+	@Override
+	protected void fillSpan(int x, int y, int w, int color) {
+		if (color >>> 24 < 0x80) return;
+		x += translateX;
+		y += translateY;
+		if (y < clipY0 || y >= clipY1) return;
+		fillBlock(Math.max(x, clipX0), y, Math.min(x + w, clipX1), y + 1, (byte) palette.indexOf(color), false);
+	}
+
+	/**
+	 * Fills an area that is already translated and clipped. Areas that are cleared don't have to be cleared again in the next frame, see {@link #markCleared(int, int, int, int)}
+	 */
+	private void fillBlock(int x0, int y0, int x1, int y1, byte index, boolean clear) {
+		if (x0 >= x1 || y0 >= y1) return;
+		if (clear) markCleared(x0, y0, x1, y1);
+		else markDirty(x0, y0, x1, y1);
+		if (x0 == 0 && x1 == width) Arrays.fill(indices, y0 * width, y1 * width, index);
+		else for (int y = y0; y < y1; y++)
+			Arrays.fill(indices, x0 + y * width, x1 + y * width, index);
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y) {
+		drawImage(PixImage.wrap(img), x, y);
+	}
+
+	@Override
+	public void drawImage(PixImage img, int x, int y) {
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + img.getWidth(), clipX1), y1 = Math.min(y + img.getHeight(), clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		int[] src = img.getPixels();
+		for (int yy = y0; yy < y1; yy++)
+			indexRow(src, img.getOffset() + (x0 - x) + (yy - y) * img.getScan(), img.getAlphaMask(), x0 + yy * width, x1 - x0);
+	}
+
+	@Override
+	protected void drawRow(int[] row, int x, int y, int len) {
+		indexRow(row, 0, 0, x + y * width, len);
+	}
+
+	/**
+	 * Puts the indices of a row of colors into the frame. Neighbouring pixels often have the same color, so the last lookup gets reused
+	 */
+	private void indexRow(int[] src, int soff, int alphaMask, int doff, int len) {
+		int last = 0, lastIndex = -1;
+		for (int i = 0; i < len; i++) {
+			int c = src[soff + i] | alphaMask;
+			if (c >>> 24 < 0x80) continue;
+			if (c != last || lastIndex < 0) {
+				last = c;
+				lastIndex = palette.indexOf(c);
+			}
+			indices[doff + i] = (byte) lastIndex;
+		}
+	}
+
+	/**
+	 * Sets the pixels a glyph covers at least half
+	 */
+	@Override
+	protected void drawGlyph(Glyph g, int x, int y, int color) {
+		if (g.data == null) return;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + g.width, clipX1), y1 = Math.min(y + g.height, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		byte index = (byte) palette.indexOf(color);
+		for (int yy = y0; yy < y1; yy++) {
+			int s = g.offset + (x0 - x) + (yy - y) * g.scan;
+			for (int d = x0 + yy * width, end = x1 + yy * width; d < end; d++, s++)
+				if (g.data[s] >= 0x80) indices[d] = index;
+		}
+	}
+
+	@Override
+	public int getTextWidth(String s, Font f) {
+		return TextMetrics.get(f).getWidth(s);
+	}
+
+	@Override
+	public int fitText(String text, int width, Font f) {
+		return TextMetrics.get(f).fit(text, width);
+	}
+
+	@Override
+	public int[] getTextPrefixWidths(String text, Font f) {
+		return TextMetrics.get(f).getPrefixWidths(text);
+	}
+
+	@Override
+	public void copyPixels(int[] dst) {
+		expand(dst);
+	}
+
+	/**
+	 * Looks up the shown color of every pixel
+	 */
+	private void expand(int[] dst) {
+		updateLut();
+		for (int i = 0; i < indices.length; i++)
+			dst[i] = lut[indices[i] & 0xFF];
+	}
+
+	/**
+	 * Copies the shown colors of the palette into the lookup table
+	 *
+	 * @return True if any color changed
+	 */
+	private boolean updateLut() {
+		int[] display = palette.getDisplayColors();
+		boolean changed = display.length != lutSize;
+		for (int i = 0; i < display.length && !changed; i++)
+			changed = lut[i] != display[i];
+		if (!changed) return false;
+		System.arraycopy(display, 0, lut, 0, display.length);
+		if (display.length != lutSize) {
+			// Indices the palette doesn't have anymore mustn't show colors of the old one
+			Arrays.fill(lut, display.length, lut.length, Renderer.BLACK);
+			lutSize = display.length;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the frame with the indices replaced by the shown colors of the palette
+	 *
+	 * @return The image, reused by every call
+	 */
+	public BufferedImage getImage() {
+		if (img == null) {
+			img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		}
+		expand(pixels);
+		return img;
+	}
+
+	/**
+	 * Expands the indices to colors and draws them. Palette changes show up here, even if nothing was drawn
+	 */
+	@Override
+	public void finishUp(Graphics g, int w, int h) {
+		g.drawImage(getImage(), 0, 0, w, h, null);
+	}
+
+	/**
+	 * Expands and draws only the areas that changed. If the shown colors of the palette changed, every pixel changed and everything is drawn
+	 */
+	@Override
+	public void finishUpDirty(Graphics g, int w, int h) {
+		if (dirty == null || presentAll || img == null || updateLut()) finishUp(g, w, h);
+		else {
+			for (int i = 0; i < dirty.size(); i++) {
+				Rectangle r = dirty.get(i);
+				for (int y = r.y; y < r.y + r.height; y++)
+					for (int p = r.x + y * width, end = p + r.width; p < end; p++)
+						pixels[p] = lut[indices[p] & 0xFF];
+			}
+			drawRegion(g, img, w, h, dirty);
+		}
+		frameDone();
+	}
+
+}
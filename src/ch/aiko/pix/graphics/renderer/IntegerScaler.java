@@ -0,0 +1,229 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shows a frame enlarged by the biggest whole factor that fits the panel. Every pixel becomes a square of factor x factor pixels in a buffer that is kept between frames, so the image stays sharp and the graphics object only has to copy the buffer without scaling it. The space around the image is filled with the letterbox color.
+ *
+ * The rows are enlarged in parallel. If the panel is smaller than the frame, it's drawn scaled down by the graphics object like before.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class IntegerScaler {
+
+	/** Bands aren't made smaller than this amount of enlarged pixels, tiny bands cost more to schedule than they save */
+	private static final int MIN_BAND_PIXELS = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private Color letterbox = Color.BLACK;
+
+	/** The enlarged frame */
+	private BufferedImage display;
+	private int[] displayPixels;
+
+	/** The factor and position of the last shown frame */
+	private int scale, offsetX, offsetY;
+
+	/**
+	 * Creates a scaler using the common pool
+	 */
+	public IntegerScaler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a scaler
+	 *
+	 * @param pool
+	 *            The pool to enlarge the rows on
+	 */
+	public IntegerScaler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the color of the space around the image
+	 *
+	 * @param color
+	 *            The color (RGB)
+	 */
+	public void setLetterboxColor(int color) {
+		letterbox = new Color(color);
+	}
+
+	/**
+	 * Gets the color of the space around the image
+	 *
+	 * @return The color (RGB)
+	 */
+	public int getLetterboxColor() {
+		return letterbox.getRGB() & 0xFFFFFF;
+	}
+
+	/**
+	 * Gets the biggest whole factor a frame can be enlarged by to fit into the panel
+	 *
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 * @param w
+	 *            The width of the panel
+	 * @param h
+	 *            The height of the panel
+	 * @return The factor, 0 if the frame doesn't fit at all
+	 */
+	public static int getScale(int width, int height, int w, int h) {
+		return Math.min(w / width, h / height);
+	}
+
+	/**
+	 * Gets the factor of the last shown frame
+	 *
+	 * @return The factor, 0 if the frame was scaled down
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * Gets where the last frame was shown on the panel, for example to turn mouse positions into frame coordinates
+	 *
+	 * @return The left edge of the image on the panel
+	 */
+	public int getOffsetX() {
+		return offsetX;
+	}
+
+	/**
+	 * Gets where the last frame was shown on the panel, for example to turn mouse positions into frame coordinates
+	 *
+	 * @return The upper edge of the image on the panel
+	 */
+	public int getOffsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * Enlarges a frame and draws it centered on the graphics object
+	 *
+	 * @param g
+	 *            The graphics of the panel to draw on
+	 * @param img
+	 *            The frame, used if the panel is too small to enlarge it
+	 * @param pixels
+	 *            The pixels of the frame, row by row
+	 * @param width
+	 *            The width of the frame
+	 * @param height
+	 *            The height of the frame
+	 * @param w
+	 *            The width of the panel
+	 * @param h
+	 *            The height of the panel
+	 * @param region
+	 *            The areas of the frame that changed, null to draw everything. Only these areas get enlarged and drawn. The space around the image is only filled when everything is drawn
+	 */
+	public void present(Graphics g, BufferedImage img, int[] pixels, int width, int height, int w, int h, DirtyRegion region) {
+		int s = getScale(width, height, w, h);
+		if (s == 0) {
+			scale = offsetX = offsetY = 0;
+			g.drawImage(img, 0, 0, w, h, null);
+			return;
+		}
+		int dw = width * s, dh = height * s;
+		if (display == null || display.getWidth() != dw || display.getHeight() != dh) {
+			display = Renderer.createScreenImage(dw, dh);
+			displayPixels = ((DataBufferInt) display.getRaster().getDataBuffer()).getData();
+			region = null; // Nothing in the new buffer yet
+		}
+		scale = s;
+		offsetX = (w - dw) / 2;
+		offsetY = (h - dh) / 2;
+
+		if (region == null) {
+			fillLetterbox(g, w, h, dw, dh);
+			enlarge(pixels, width, 0, 0, width, height);
+			g.drawImage(display, offsetX, offsetY, null);
+			return;
+		}
+		for (int i = 0; i < region.size(); i++) {
+			Rectangle r = region.get(i);
+			int x0 = Math.max(r.x, 0), y0 = Math.max(r.y, 0);
+			int x1 = Math.min(r.x + r.width, width), y1 = Math.min(r.y + r.height, height);
+			if (x0 >= x1 || y0 >= y1) continue;
+			enlarge(pixels, width, x0, y0, x1, y1);
+			g.drawImage(display, offsetX + x0 * s, offsetY + y0 * s, offsetX + x1 * s, offsetY + y1 * s, x0 * s, y0 * s, x1 * s, y1 * s, null);
+		}
+	}
+
+	private void fillLetterbox(Graphics g, int w, int h, int dw, int dh) {
+		if (dw == w && dh == h) return;
+		g.setColor(letterbox);
+		g.fillRect(0, 0, w, offsetY);
+		g.fillRect(0, offsetY + dh, w, h - offsetY - dh);
+		g.fillRect(0, offsetY, offsetX, dh);
+		g.fillRect(offsetX + dw, offsetY, w - offsetX - dw, dh);
+	}
+
+	/**
+	 * Enlarges an area of the frame into the display buffer
+	 */
+	private void enlarge(int[] pixels, int width, int x0, int y0, int x1, int y1) {
+		int band = Math.max(1, MIN_BAND_PIXELS / ((x1 - x0) * scale * scale));
+		if (y1 - y0 <= band) new ScaleTask(pixels, width, x0, x1, y0, y1, band).compute();
+		else pool.invoke(new ScaleTask(pixels, width, x0, x1, y0, y1, band));
+	}
+
+	/**
+	 * Enlarges a range of rows, splits itself until the bands are small enough
+	 */
+	private class ScaleTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] src;
+		private final int width, x0, x1, y0, y1, band;
+
+		ScaleTask(int[] src, int width, int x0, int x1, int y0, int y1, int band) {
+			this.src = src;
+			this.width = width;
+			this.x0 = x0;
+			this.x1 = x1;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.band = band;
+		}
+
+		@Override
+		protected void compute() {
+			if (y1 - y0 > band) {
+				int mid = (y0 + y1) >>> 1;
+				invokeAll(new ScaleTask(src, width, x0, x1, y0, mid, band), new ScaleTask(src, width, x0, x1, mid, y1, band));
+				return;
+			}
+			int s = scale, scan = width * s, len = (x1 - x0) * s;
+			int[] dst = displayPixels;
+			for (int y = y0; y < y1; y++) {
+				// Widen the first row, then copy it for the others
+				int first = y * s * scan + x0 * s;
+				if (s == 1) System.arraycopy(src, x0 + y * width, dst, first, len);
+				else for (int x = x0, d = first; x < x1; x++) {
+					int c = src[x + y * width];
+					for (int k = 0; k < s; k++)
+						dst[d++] = c;
+				}
+				for (int k = 1; k < s; k++)
+					System.arraycopy(dst, first, dst, first + k * scan, len);
+			}
+		}
+	}
+
+}
@@ -9,6 +9,11 @@ public class OnScreenText {
 	private int maxWidth, x, y, color, offset, startedMoving;
 	private Font f;
 
+	/** The widths of all prefixes of the text, measured once */
+	private int[] prefixWidths;
+	/** The part of the text drawn in the last frame, so it doesn't have to be cut again while it stays the same */
+	private String visible;
+
 	public OnScreenText(int x, int y, int width, String text, int color, Font f) {
 		this.x = x;
 		this.y = y;
@@ -19,7 +24,11 @@ public class OnScreenText {
 	}
 
 	public void render(Renderer r) {
-		int i = r.drawTextLimit(x - offset, y, maxWidth + offset, toRender, color, f);
+		if (prefixWidths == null) prefixWidths = r.getTextPrefixWidths(toRender, f);
+		int n = TextMetrics.fit(prefixWidths, maxWidth + offset);
+		if (visible == null || visible.length() != n) visible = toRender.substring(0, n);
+		r.drawText(x - offset, y, visible, color, f);
+		int i = toRender.length() - n;
 		if (offset < 0 || i > 0) {
 			offset++;
 		} else if (!isMoving && offset != 0) {
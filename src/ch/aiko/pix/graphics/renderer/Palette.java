@@ -0,0 +1,201 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.util.Arrays;
+
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * The colors of an {@link IndexedRenderer}, at most 256 of them. Every color drawn gets replaced with the index of the closest color in the palette.
+ *
+ * Each index has two colors: the one used to find the index of a drawn color and the one shown on the screen. They're the same until the shown colors get changed with {@link #cycle(int, int, int)}, {@link #swap(Palette)} or {@link #setDisplayColor(int, int)}. That way the whole screen changes without drawing anything again, while everything drawn afterwards still gets the same indices.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class Palette {
+
+	/** The most colors a palette can have */
+	public static final int MAX_COLORS = 256;
+
+	/** Size of the cache of closest colors, a power of two */
+	private static final int CACHE_SIZE = 1024;
+
+	private final int[] colors;
+	private final int[] display;
+
+	/** Colors looked up lately and their indices. The key is the RGB of the color + 1, so it's never 0 and 0 means empty */
+	private final int[] cacheKeys = new int[CACHE_SIZE];
+	private final byte[] cacheValues = new byte[CACHE_SIZE];
+
+	/**
+	 * Creates a palette
+	 *
+	 * @param colors
+	 *            The colors, at most 256. The alpha is ignored
+	 */
+	public Palette(int... colors) {
+		if (colors.length == 0 || colors.length > MAX_COLORS) throw new IllegalArgumentException("A palette needs 1 to " + MAX_COLORS + " colors, not " + colors.length);
+		this.colors = new int[colors.length];
+		for (int i = 0; i < colors.length; i++)
+			this.colors[i] = colors[i] | Renderer.ALPHA_MASK;
+		display = this.colors.clone();
+	}
+
+	/**
+	 * Creates a palette containing every color of an image. Pixels with less than half alpha are ignored
+	 *
+	 * @param img
+	 *            The image
+	 * @return The palette
+	 * @throws IllegalArgumentException
+	 *             If the image has more than 256 colors
+	 */
+	public static Palette fromImage(PixImage img) {
+		int[] found = new int[MAX_COLORS];
+		int count = 0;
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				int c = img.getPixel(x, y);
+				if (c >>> 24 < 0x80) continue;
+				c |= Renderer.ALPHA_MASK;
+				int i = 0;
+				while (i < count && found[i] != c)
+					i++;
+				if (i < count) continue;
+				if (count == MAX_COLORS) throw new IllegalArgumentException("The image has more than " + MAX_COLORS + " colors");
+				found[count++] = c;
+			}
+		}
+		return new Palette(Arrays.copyOf(found, Math.max(1, count)));
+	}
+
+	/**
+	 * Finds the index of the color closest to the given one
+	 *
+	 * @param color
+	 *            The color
+	 * @return The index of the closest color in the palette
+	 */
+	public int indexOf(int color) {
+		color |= Renderer.ALPHA_MASK;
+		int h = color * 0x9E3779B9 >>> 22; // 10 bits
+		int key = (color & 0xFFFFFF) + 1;
+		if (cacheKeys[h] == key) return cacheValues[h] & 0xFF;
+		int best = 0, bestDist = Integer.MAX_VALUE;
+		for (int i = 0; i < colors.length; i++) {
+			int c = colors[i];
+			int dr = (c >> 16 & 0xFF) - (color >> 16 & 0xFF), dg = (c >> 8 & 0xFF) - (color >> 8 & 0xFF), db = (c & 0xFF) - (color & 0xFF);
+			int dist = dr * dr * 3 + dg * dg * 4 + db * db * 2; // The eye sees green best and blue worst
+			if (dist < bestDist) {
+				best = i;
+				bestDist = dist;
+				if (dist == 0) break;
+			}
+		}
+		cacheKeys[h] = key;
+		cacheValues[h] = (byte) best;
+		return best;
+	}
+
+	/**
+	 * Gets the amount of colors
+	 *
+	 * @return The size of the palette
+	 */
+	public int getSize() {
+		return colors.length;
+	}
+
+	/**
+	 * Gets a color
+	 *
+	 * @param index
+	 *            The index of the color
+	 * @return The color drawn colors get compared to
+	 */
+	public int getColor(int index) {
+		return colors[index];
+	}
+
+	/**
+	 * Changes a color. Also changes the color shown on the screen
+	 *
+	 * @param index
+	 *            The index of the color
+	 * @param color
+	 *            The new color
+	 */
+	public void setColor(int index, int color) {
+		colors[index] = color | Renderer.ALPHA_MASK;
+		display[index] = colors[index];
+		Arrays.fill(cacheKeys, 0);
+	}
+
+	/**
+	 * Gets the color shown on the screen for an index
+	 *
+	 * @param index
+	 *            The index
+	 * @return The shown color
+	 */
+	public int getDisplayColor(int index) {
+		return display[index];
+	}
+
+	/**
+	 * Changes the color shown on the screen for an index. Drawing doesn't change
+	 *
+	 * @param index
+	 *            The index
+	 * @param color
+	 *            The color to show
+	 */
+	public void setDisplayColor(int index, int color) {
+		display[index] = color | Renderer.ALPHA_MASK;
+	}
+
+	/**
+	 * Rotates the shown colors of a range of indices, for example to let water flow or lights blink
+	 *
+	 * @param from
+	 *            The first index of the range
+	 * @param to
+	 *            The last index of the range (inclusive)
+	 * @param steps
+	 *            How far every color moves up, negative to move down. Colors moving out at one end come back in at the other
+	 */
+	public void cycle(int from, int to, int steps) {
+		int len = to - from + 1;
+		if (from < 0 || to >= display.length || len <= 1) return;
+		steps = Math.floorMod(steps, len);
+		if (steps == 0) return;
+		int[] t = Arrays.copyOfRange(display, from, to + 1);
+		for (int i = 0; i < len; i++)
+			display[from + (i + steps) % len] = t[i];
+	}
+
+	/**
+	 * Shows the colors of another palette instead, for example a darker one at night. Indices the other palette doesn't have stay as they are
+	 *
+	 * @param other
+	 *            The palette whose colors should be shown
+	 */
+	public void swap(Palette other) {
+		System.arraycopy(other.colors, 0, display, 0, Math.min(display.length, other.colors.length));
+	}
+
+	/**
+	 * Shows the real colors again, undoes cycling and swapping
+	 */
+	public void resetDisplay() {
+		System.arraycopy(colors, 0, display, 0, colors.length);
+	}
+
+	/**
+	 * Gets the shown colors, the renderer expands the indices with them
+	 */
+	int[] getDisplayColors() {
+		return display;
+	}
+
+}
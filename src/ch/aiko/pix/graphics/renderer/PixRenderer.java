@@ -1,15 +1,13 @@
 package ch.aiko.pix.graphics.renderer;
 
-import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.GraphicsEnvironment;
-import java.awt.Transparency;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
-import java.util.Arrays;
+
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+import ch.aiko.pix.image.PixImage;
 
 /**
  * PixRenderer renders the image like the graphcisrenderer just the graphics object was replaces with a pixel array.
@@ -21,16 +19,60 @@ public class PixRenderer extends Renderer {
 
 	public static final boolean ALPHA_ENABLED = true;
 
+	/** The loops that fill and blend rows of pixels */
+	private static final PixelOps OPS = PixelOps.get();
+
 	private BufferedImage img;
 	private int[] pixels;
+	/** If the pixels have no alpha channel, they are treated as fully opaque then */
+	private final boolean opaque;
+	/** Gets or'ed onto the pixels that are blended on, ALPHA_MASK if they are opaque */
+	private final int dstMask;
+	/** The image shown instead of the drawn one, holds the result of the effects. Null until it's needed */
+	private BufferedImage outImg;
+	private int[] outPixels;
+	private boolean outputEnabled = false;
+	/** Enlarges the frame when it's shown, null to let the graphics object scale it */
+	private IntegerScaler scaler;
 
 	public PixRenderer(int w, int h) {
+		this(w, h, true);
+	}
+
+	/**
+	 * Creates a renderer, optionally with an alpha channel. A translucent renderer starts fully transparent and blends with the real alpha of its pixels, so what it draws can be drawn over something else later (see {@link #getImage()}). It's slower than an opaque one
+	 * 
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 * @param opaque
+	 *            False to give the pixels an alpha channel
+	 */
+	public PixRenderer(int w, int h, boolean opaque) {
 		super(w, h);
+		this.opaque = opaque;
+		dstMask = opaque ? ALPHA_MASK : 0;
 
-		img = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(w, h, ALPHA_ENABLED ? Transparency.OPAQUE : Transparency.BITMASK);
+		img = opaque ? createScreenImage(w, h) : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
 		pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
 		
 		drawText(0, 0, "Init", 0xFFFF00FF , new Font("Arial", 0, 25)); // Reduces time to wait for users first drawString call
+		if (!opaque) clear(0);
+	}
+
+	/**
+	 * Creates a renderer that draws into the same pixels as the given one, but has its own clip, translation and blend mode. Used to draw into different parts of the screen at the same time
+	 * 
+	 * @param shared
+	 *            The renderer whose pixels should be used
+	 */
+	PixRenderer(PixRenderer shared) {
+		super(shared.width, shared.height);
+		opaque = shared.opaque;
+		dstMask = shared.dstMask;
+		img = shared.img;
+		pixels = shared.pixels;
 	}
 
 	@Override
@@ -52,8 +94,38 @@ public class PixRenderer extends Renderer {
 
 	@Override
 	public void drawPixel(int x, int y, int color) {
-		if (x < 0 || x >= width || y < 0 || y >= height || color >> 24 == 0) return; // Don't draw on the new line --> overflow protection
-		pixels[x + y * width] = color;
+		x += translateX;
+		y += translateY;
+		if (!inClip(x, y) || color >>> 24 == 0 && Blending.skipsTransparent(blendMode)) return; // Don't draw on the new line --> overflow protection
+		markDirty(x, y, x + 1, y + 1);
+		if (color >>> 24 == 0xFF && blendMode == Blending.NORMAL || blendMode == Blending.REPLACE) pixels[x + y * width] = color;
+		else pixels[x + y * width] = Blending.blend(color, pixels[x + y * width] | dstMask, blendMode);
+	}
+
+	@Override
+	public int[] getFrameBuffer() {
+		return pixels;
+	}
+
+	@Override
+	public int[] getOutputBuffer() {
+		if (outImg == null) {
+			outImg = createScreenImage(width, height);
+			outPixels = ((DataBufferInt) outImg.getRaster().getDataBuffer()).getData();
+		}
+		return outPixels;
+	}
+
+	@Override
+	public void setOutputEnabled(boolean enabled) {
+		if (enabled) getOutputBuffer();
+		if (enabled != outputEnabled) markAllDirty();
+		outputEnabled = enabled;
+	}
+
+	@Override
+	public void copyPixels(int[] dst) {
+		System.arraycopy(outputEnabled ? outPixels : pixels, 0, dst, 0, width * height);
 	}
 
 	public int readPixel(int index) {
@@ -62,69 +134,337 @@ public class PixRenderer extends Renderer {
 	}
 
 	public int readPixel(int x, int y) {
+		x += translateX;
+		y += translateY;
 		if (x < 0 || x >= width || y < 0 || y >= height) return -1; // Don't draw on the new line --> overflow protection
 		return pixels[x + y * width];
 	}
 
 	@Override
 	public void clear(int color) {
-		Arrays.fill(pixels, color);
+		if (clearOnlyDirty()) {
+			for (int i = 0; i < lastDirty.size(); i++) {
+				Rectangle r = lastDirty.get(i);
+				int x0 = Math.max(r.x, clipX0), y0 = Math.max(r.y, clipY0);
+				int x1 = Math.min(r.x + r.width, clipX1), y1 = Math.min(r.y + r.height, clipY1);
+				if (x0 >= x1 || y0 >= y1) continue;
+				markCleared(x0, y0, x1, y1);
+				fillBlock(x0, y0, x1, y1, color, Blending.REPLACE);
+			}
+		} else if (clipX0 == 0 && clipY0 == 0 && clipX1 == width && clipY1 == height) {
+			OPS.fill(pixels, 0, pixels.length, color);
+			markCleared(0, 0, width, height);
+		} else if (clipX0 < clipX1 && clipY0 < clipY1) {
+			markCleared(clipX0, clipY0, clipX1, clipY1);
+			fillBlock(clipX0, clipY0, clipX1, clipY1, color, Blending.REPLACE);
+		}
 	}
 
 	@Override
-	public void drawImage(BufferedImage img, int x, int y) {
-		int w = img.getWidth();
-		int h = img.getHeight();
-		DataBuffer db = img.getRaster().getDataBuffer();
-		int[] pi = null;
-		if (db instanceof DataBufferInt) {
-			pi = ((DataBufferInt) db).getData();
+	public void fillRect(int x, int y, int w, int h, int color) {
+		fillArea(x, y, x + w + 1, y + h + 1, color); // The right and bottom edge are part of the rectangle
+	}
+
+	@Override
+	public void drawRect(int x, int y, int w, int h, int color) {
+		fillArea(x, y, x + w, y + 1, color);
+		fillArea(x, y + h, x + w, y + h + 1, color);
+		fillArea(x, y, x + 1, y + h, color);
+		fillArea(x + w, y, x + w + 1, y + h, color);
+	}
+
+	@Override
+	public void fastHorizontalLine(int x, int y, int w, int thickness, int color) {
+		fillArea(x, y - thickness / 2, x + w, y + thickness / 2 + 1, color);
+	}
+
+	@Override
+	public void fastVerticalLine(int x, int y, int h, int thickness, int color) {
+		fillArea(x - thickness / 2, y, x + thickness / 2 + 1, y + h, color);
+	}
+
+	@Override
+	protected void fillSpan(int x, int y, int w, int color) {
+		fillArea(x, y, x + w, y + 1, color);
+	}
+
+	/**
+	 * Fills the area between (x0|y0) inclusive and (x1|y1) exclusive. The area gets translated and clipped once, then it's filled row by row.
+	 * 
+	 * @param x0
+	 *            The left edge (inclusive)
+	 * @param y0
+	 *            The top edge (inclusive)
+	 * @param x1
+	 *            The right edge (exclusive)
+	 * @param y1
+	 *            The bottom edge (exclusive)
+	 * @param color
+	 *            The color to fill the area with
+	 */
+	private void fillArea(int x0, int y0, int x1, int y1, int color) {
+		if (color >>> 24 == 0 && Blending.skipsTransparent(blendMode)) return;
+		x0 = Math.max(x0 + translateX, clipX0);
+		y0 = Math.max(y0 + translateY, clipY0);
+		x1 = Math.min(x1 + translateX, clipX1);
+		y1 = Math.min(y1 + translateY, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		fillBlock(x0, y0, x1, y1, color, blendMode);
+	}
+
+	/**
+	 * Fills an area that is already translated and clipped. Opaque colors fill the first row and copy it to all the others.
+	 * 
+	 * @param x0
+	 *            The left edge in screen coordinates (inclusive)
+	 * @param y0
+	 *            The top edge in screen coordinates (inclusive)
+	 * @param x1
+	 *            The right edge in screen coordinates (exclusive)
+	 * @param y1
+	 *            The bottom edge in screen coordinates (exclusive)
+	 * @param color
+	 *            The color to fill the area with
+	 * @param mode
+	 *            The blend mode to use
+	 */
+	private void fillBlock(int x0, int y0, int x1, int y1, int color, int mode) {
+		int w = x1 - x0;
+		int first = x0 + y0 * width;
+		if (color >>> 24 == 0xFF && mode == Blending.NORMAL || mode == Blending.REPLACE) {
+			OPS.fill(pixels, first, w, color);
+			for (int i = first + width, end = x0 + y1 * width; i < end; i += width)
+				System.arraycopy(pixels, first, pixels, i, w);
 		} else {
-			// System.err.println("Unhandled type: " + db.getDataType());
-			pi = img.getRGB(0, 0, w, h, pi, 0, w);
+			for (int i = first, end = x0 + y1 * width; i < end; i += width)
+				OPS.blendSpan(pixels, i, w, color, mode, opaque);
 		}
-		if (pi == null) return;
-		for (int yy = 0; yy < h; yy++) {
-			for (int xx = 0; xx < w; xx++) {
-				if (x + xx >= width || x + xx <= 0 || y + yy >= height || y + yy < 0 || (supportsAlpha() && ((pi[xx + yy * w] >> 24) & 0xFF) <= 0x10)) continue;
-				pixels[x + xx + (y + yy) * width] = pi[xx + yy * w];
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y) {
+		PixImage pi = PixImage.wrap(img); // Doesn't copy int images, subimages included
+		blit(pi.getPixels(), pi.getOffset(), pi.getScan(), pi.getWidth(), pi.getHeight(), x, y, pi.getAlphaMask());
+	}
+
+	/**
+	 * Draws a PixImage using its runs: opaque runs are copied, translucent ones blended and transparent pixels are never looked at. Other blend modes than NORMAL blend every run. REPLACE and PREMULTIPLIED change the destination under transparent pixels too, so they draw every row completely instead.
+	 */
+	@Override
+	public void drawImage(PixImage img, int x, int y) {
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + img.getWidth(), clipX1), y1 = Math.min(y + img.getHeight(), clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		int[] src = img.getPixels();
+		int[] runs = img.getRuns();
+		int off = img.getOffset(), scan = img.getScan(), mask = img.getAlphaMask();
+		int mode = supportsAlpha() ? blendMode : Blending.CUT_OUT;
+		if (!Blending.skipsTransparent(mode)) {
+			for (int yy = y0; yy < y1; yy++)
+				OPS.blendRow(src, off + (x0 - x) + (yy - y) * scan, pixels, x0 + yy * width, x1 - x0, mask, mode, opaque);
+			return;
+		}
+		boolean copy = mode == Blending.NORMAL || mode == Blending.CUT_OUT;
+		for (int yy = y0; yy < y1; yy++) {
+			int row = yy - y;
+			for (int r = runs[row], end = runs[row + 1]; r < end; r += 2) {
+				int rx0 = Math.max(x + runs[r], x0);
+				int rx1 = Math.min(x + runs[r] + (runs[r + 1] & ~PixImage.TRANSLUCENT_RUN), x1);
+				if (rx0 >= rx1) continue;
+				int s = off + (rx0 - x) + row * scan;
+				int d = rx0 + yy * width;
+				if (copy && (runs[r + 1] & PixImage.TRANSLUCENT_RUN) == 0 && mask == 0) System.arraycopy(src, s, pixels, d, rx1 - rx0);
+				else OPS.blendRow(src, s, pixels, d, rx1 - rx0, mask, mode, opaque);
 			}
 		}
 	}
 
+	/**
+	 * Draws a PixImage scaled. Every visible row gets sampled into a reused buffer with fixed point steps and then blended like an unscaled image, nothing gets allocated
+	 */
 	@Override
-	public void drawImage(BufferedImage img, int x, int y, int x1, int y1, int w, int h) {
-		int[] pi = new int[w * h];
-		pi = img.getSubimage(x1, y1, w, h).getRGB(0, 0, w, h, pi, 0, w);
-		for (int yy = 0; yy < h; yy++) {
-			for (int xx = 0; xx < w; xx++) {
-				if (x + xx >= width || x + xx <= 0 || y + yy >= height || y + yy < 0 || supportsAlpha() && (pi[xx + x1 + (yy + y1) * w] >> 24 & 0xFF) <= 0) continue; // alpha = 0
-				pixels[x + xx + (y + yy) * width] = pi[xx + x1 + (yy + y1) * w];
-			}
+	public void drawImage(PixImage img, int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) return;
+		if (w == img.getWidth() && h == img.getHeight()) {
+			drawImage(img, x, y);
+			return;
 		}
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + w, clipX1), y1 = Math.min(y + h, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		PixImage src = img.getMipmap(w, h);
+		long du = ((long) src.getWidth() << 16) / w, dv = ((long) src.getHeight() << 16) / h;
+		int len = x1 - x0;
+		int[] row = getRowBuffer(len);
+		int mode = supportsAlpha() ? blendMode : Blending.CUT_OUT;
+		long u = du / 2 + (x0 - x) * du;
+		for (int yy = y0; yy < y1; yy++) {
+			Sampling.sampleSpan(src, row, 0, len, u, dv / 2 + (yy - y) * dv, du, 0, filter);
+			OPS.blendRow(row, 0, pixels, x0 + yy * width, len, 0, mode, opaque);
+		}
+	}
+
+	@Override
+	protected void drawRow(int[] row, int x, int y, int len) {
+		OPS.blendRow(row, 0, pixels, x + y * width, len, 0, supportsAlpha() ? blendMode : Blending.CUT_OUT, opaque);
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y, int x1, int y1, int w, int h) {
+		int[] pi = img.getRGB(x1, y1, w, h, null, 0, w);
+		blit(pi, 0, w, w, h, x, y, 0);
+	}
+
+	/**
+	 * Blends a block of pixels onto the screen. The block gets translated and clipped once, then every row is handed to {@link Blending#blendRow}, which copies opaque pixels and skips the transparent ones unless the blend mode writes them.
+	 * 
+	 * @param src
+	 *            The pixels to draw
+	 * @param off
+	 *            The index of the upper left pixel in src
+	 * @param scan
+	 *            The distance between two rows in src
+	 * @param w
+	 *            The width of the block
+	 * @param h
+	 *            The height of the block
+	 * @param x
+	 *            Where to draw the upper left corner
+	 * @param y
+	 *            Where to draw the upper left corner
+	 * @param alphaMask
+	 *            ALPHA_MASK if the source has no alpha channel, 0 otherwise
+	 */
+	void blit(int[] src, int off, int scan, int w, int h, int x, int y, int alphaMask) {
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + w, clipX1), y1 = Math.min(y + h, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+		int len = x1 - x0;
+		int mode = supportsAlpha() ? blendMode : Blending.CUT_OUT;
+		for (int yy = y0; yy < y1; yy++)
+			OPS.blendRow(src, off + (x0 - x) + (yy - y) * scan, pixels, x0 + yy * width, len, alphaMask, mode, opaque);
 	}
 
 	@Override
 	public void finishUp(Graphics g, int w, int h) {
-		g.drawImage(img, 0, 0, w, h, null);
+		if (scaler != null) scaler.present(g, getShownImage(), outputEnabled ? outPixels : pixels, width, height, w, h, null);
+		else g.drawImage(getShownImage(), 0, 0, w, h, null);
+	}
+
+	/**
+	 * Gets the image that gets shown, the output if it's enabled
+	 */
+	private BufferedImage getShownImage() {
+		return outputEnabled ? outImg : img;
+	}
+
+	/**
+	 * Turns pixel perfect scaling on or off. When it's on, the frame gets enlarged by the biggest whole factor that fits the panel and centered, see {@link IntegerScaler}. When it's off, the frame gets stretched over the whole panel
+	 * 
+	 * @param on
+	 *            True to enlarge by whole factors
+	 */
+	public void setIntegerScaling(boolean on) {
+		if (on == (scaler != null)) return;
+		scaler = on ? new IntegerScaler() : null;
+		markAllDirty();
 	}
 
+	/**
+	 * Gets the scaler used to show the frame
+	 * 
+	 * @return The scaler or null if pixel perfect scaling is off
+	 */
+	public IntegerScaler getIntegerScaler() {
+		return scaler;
+	}
+
+	@Override
+	public void finishUpDirty(Graphics g, int w, int h) {
+		present(g, w, h, presentAll ? null : dirty);
+		frameDone();
+	}
+
+	/**
+	 * Draws the parts of the image in the region to the graphics object, scaled to the given size.
+	 * 
+	 * @param g
+	 *            The graphics of the panel to draw on
+	 * @param w
+	 *            The width of the panel
+	 * @param h
+	 *            The height of the panel
+	 * @param region
+	 *            The areas to draw in screen coordinates, null to draw everything
+	 */
+	void present(Graphics g, int w, int h, DirtyRegion region) {
+		if (region == null || scaler != null) {
+			if (scaler != null) scaler.present(g, getShownImage(), outputEnabled ? outPixels : pixels, width, height, w, h, region);
+			else finishUp(g, w, h);
+			return;
+		}
+		drawRegion(g, getShownImage(), w, h, region);
+	}
+
+	/**
+	 * Gets the image the frame is drawn into. Effects aren't in it, they're only in the output
+	 * 
+	 * @return The image
+	 */
 	public BufferedImage getImage() {
 		return img;
 	}
 
+	/**
+	 * Blends the coverage of a glyph onto the screen
+	 */
 	@Override
-	public void drawText(int x, int y, String text, int color, Font f) {
-		if(text == null) return;
-		Graphics g2d = img.getGraphics();
-		FontMetrics fm = g2d.getFontMetrics(f);
-		g2d.setFont(f);
-		g2d.setColor(new Color(color));
-		g2d.drawString(text, x, y + fm.getAscent());
+	protected void drawGlyph(Glyph g, int x, int y, int color) {
+		if (g.data == null) return;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + g.width, clipX1), y1 = Math.min(y + g.height, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		int a = color >>> 24;
+		int rgb = color & 0xFFFFFF;
+		boolean direct = a == 0xFF && blendMode == Blending.NORMAL || blendMode == Blending.REPLACE;
+		int[] cov = g.data;
+		for (int yy = y0; yy < y1; yy++) {
+			int s = g.offset + (x0 - x) + (yy - y) * g.scan;
+			for (int d = x0 + yy * width, end = x1 + yy * width; d < end; d++, s++) {
+				int c = cov[s];
+				if (c == 0) continue;
+				if (c == 0xFF && direct) pixels[d] = color;
+				else pixels[d] = Blending.blend(Blending.mul255(a, c) << 24 | rgb, pixels[d] | dstMask, blendMode);
+			}
+		}
 	}
-	
+
 	public int getTextWidth(String t, Font f) {
-		return (int)img.getGraphics().getFontMetrics(f).getStringBounds(t, img.getGraphics()).getWidth();
+		return TextMetrics.get(f).getWidth(t);
+	}
+
+	@Override
+	public int fitText(String text, int width, Font f) {
+		return TextMetrics.get(f).fit(text, width);
+	}
+
+	@Override
+	public int[] getTextPrefixWidths(String text, Font f) {
+		return TextMetrics.get(f).getPrefixWidths(text);
 	}
 
 }
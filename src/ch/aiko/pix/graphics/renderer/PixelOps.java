@@ -0,0 +1,112 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.util.Arrays;
+
+/**
+ * The loops the renderers run over rows of pixels: filling, blending a color and blending a row of another image. This class runs them one pixel after another with the functions in {@link Blending}.
+ *
+ * On Java 16 and newer there can be a second implementation using the vector API, which works on as many pixels at once as the processor allows. It's compiled separately from src-java16 and used if it's on the classpath and java was started with --add-modules jdk.incubator.vector. Setting the property pix.vector to false turns it off. Both implementations give exactly the same pixels.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class PixelOps {
+
+	private static final PixelOps INSTANCE = load();
+
+	/**
+	 * Only for subclasses, use {@link #get()}
+	 */
+	protected PixelOps() {}
+
+	/**
+	 * Gets the fastest implementation available
+	 *
+	 * @return The implementation used by the renderers
+	 */
+	public static PixelOps get() {
+		return INSTANCE;
+	}
+
+	private static PixelOps load() {
+		if (!"false".equals(System.getProperty("pix.vector"))) {
+			try {
+				Class.forName("jdk.incubator.vector.IntVector");
+				return (PixelOps) Class.forName(PixelOps.class.getPackage().getName() + ".VectorPixelOps").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Older java, module not added or not compiled in
+			}
+		}
+		return new PixelOps();
+	}
+
+	/**
+	 * Gets the name of the implementation, to see which one is used
+	 *
+	 * @return The name
+	 */
+	public String getName() {
+		return "scalar";
+	}
+
+	/**
+	 * Sets a run of pixels to a color
+	 *
+	 * @param dst
+	 *            The pixels
+	 * @param off
+	 *            The index of the first pixel
+	 * @param len
+	 *            The amount of pixels
+	 * @param color
+	 *            The color
+	 */
+	public void fill(int[] dst, int off, int len, int color) {
+		Arrays.fill(dst, off, off + len, color);
+	}
+
+	/**
+	 * Blends a single color over a run of pixels, see {@link Blending#blendSpan(int[], int, int, int, int, boolean)}
+	 *
+	 * @param dst
+	 *            The pixels to draw on
+	 * @param off
+	 *            The index of the first pixel
+	 * @param len
+	 *            The amount of pixels
+	 * @param color
+	 *            The color to draw
+	 * @param mode
+	 *            The blend mode
+	 * @param opaqueDst
+	 *            If the destination has no alpha channel
+	 */
+	public void blendSpan(int[] dst, int off, int len, int color, int mode, boolean opaqueDst) {
+		Blending.blendSpan(dst, off, len, color, mode, opaqueDst);
+	}
+
+	/**
+	 * Blends a row of source pixels onto a row of destination pixels, see {@link Blending#blendRow(int[], int, int[], int, int, int, int, boolean)}
+	 *
+	 * @param src
+	 *            The source pixels
+	 * @param soff
+	 *            The index of the first source pixel
+	 * @param dst
+	 *            The destination pixels
+	 * @param doff
+	 *            The index of the first destination pixel
+	 * @param len
+	 *            The amount of pixels
+	 * @param alphaMask
+	 *            Gets or'ed onto every source pixel
+	 * @param mode
+	 *            The blend mode
+	 * @param opaqueDst
+	 *            If the destination has no alpha channel
+	 */
+	public void blendRow(int[] src, int soff, int[] dst, int doff, int len, int alphaMask, int mode, boolean opaqueDst) {
+		Blending.blendRow(src, soff, dst, doff, len, alphaMask, mode, opaqueDst);
+	}
+
+}
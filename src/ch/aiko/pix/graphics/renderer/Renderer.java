@@ -2,8 +2,19 @@ package ch.aiko.pix.graphics.renderer;
 
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+import ch.aiko.pix.image.PixImage;
+import ch.aiko.pix.image.SpriteAtlas;
 
 /**
  * Core class of all renderer classes. Contains most of the code for rendering complex stuff, in short everything that is not a single pixel This should be implemented by the child class and if it has a more efficient way to render something, the methods should be overridden
@@ -23,6 +34,64 @@ public abstract class Renderer {
 	 */
 	protected int width, height;
 
+	/**
+	 * How new colors get combined with the ones already on the screen. One of the constants in {@link Blending}
+	 */
+	protected int blendMode = Blending.NORMAL;
+
+	/**
+	 * How images drawn with a different size get sampled. One of the constants in {@link Sampling}
+	 */
+	protected int filter = Sampling.NEAREST;
+
+	/**
+	 * The clip rectangle in screen coordinates. The left and top edges are inclusive, the right and bottom edges exclusive. Nothing outside of it gets drawn
+	 */
+	protected int clipX0, clipY0, clipX1, clipY1;
+	/**
+	 * Gets added to every coordinate passed to the drawing functions
+	 */
+	protected int translateX, translateY;
+
+	/** The saved clip rectangles, four ints each */
+	private int[] clipStack = new int[4 * 8];
+	/** The saved translations, two ints each */
+	private int[] translateStack = new int[2 * 8];
+	private int clipDepth, translateDepth;
+
+	/**
+	 * How far the current frame is between the last update and the next one, from 0 to 1. Set by the panel before each frame
+	 */
+	protected float interpolation = 0;
+
+	/** Reused by draw calls that need a row of colors */
+	private int[] rowBuffer;
+
+	/**
+	 * The areas changed in the current frame in screen coordinates. null if changes aren't tracked
+	 */
+	protected DirtyRegion dirty = null;
+	/**
+	 * The areas drawn in the current frame, without the ones that were only cleared. null if changes aren't tracked
+	 */
+	protected DirtyRegion drawn = null;
+	/**
+	 * The areas drawn in the last presented frame. Everything else still has the color it was cleared with, so clear only has to clear these areas if only dirty areas get cleared
+	 */
+	protected DirtyRegion lastDirty = null;
+	/**
+	 * If clear only clears what was drawn in the last frame instead of the whole clip
+	 */
+	protected boolean clearDirtyOnly = false;
+	/**
+	 * If the next presentation has to draw the whole image (nothing has been presented yet, contents were lost...)
+	 */
+	protected boolean presentAll = true;
+	/**
+	 * If the next clear has to clear the whole clip, even if only dirty areas should be cleared
+	 */
+	protected boolean clearAll = true;
+
 	/**
 	 * Creates the basic renderer
 	 * 
@@ -34,157 +103,932 @@ public abstract class Renderer {
 	public Renderer(int w, int h) {
 		this.width = w;
 		this.height = h;
+		this.clipX1 = w;
+		this.clipY1 = h;
+	}
+
+	/**
+	 * Whether or not alpha colors (translucency) are supported or not
+	 * 
+	 * @return True if alpha is supported false otherwise
+	 */
+	public abstract boolean supportsAlpha();
+
+	/**
+	 * Gets the array the frame is drawn into, to change the pixels directly. The colors are stored row by row. Call {@link #markAllChanged()} after changing them
+	 * 
+	 * @return The pixels or null if the renderer doesn't draw into an int array
+	 */
+	public int[] getFrameBuffer() {
+		return null;
+	}
+
+	/**
+	 * Gets a second array of the size of the frame that can be shown instead of the frame buffer, see {@link #setOutputEnabled(boolean)}. Effects write their result into it, so the drawn scene stays as it is for the next frame
+	 * 
+	 * @return The pixels, row by row, or null if the renderer can't show a separate output
+	 */
+	public int[] getOutputBuffer() {
+		return null;
+	}
+
+	/**
+	 * Chooses if the output buffer gets shown and copied instead of the frame buffer. Drawing always goes into the frame buffer. Does nothing for renderers without an output buffer
+	 * 
+	 * @param enabled
+	 *            True to show {@link #getOutputBuffer()}, false to show the drawn frame
+	 */
+	public void setOutputEnabled(boolean enabled) {}
+
+	/**
+	 * Copies the pixels of the finished frame into an array, row by row. This is the shown frame, the output buffer if it's enabled
+	 * 
+	 * @param dst
+	 *            The array to copy to, needs space for width * height colors
+	 */
+	public abstract void copyPixels(int[] dst);
+
+	/**
+	 * Draws a single color on a single pixel in the panel. (0|0) is in the upper left corner and coordinates go up when the point is going to the lower-right corner.
+	 * 
+	 * @param x
+	 *            The x coordinate to draw
+	 * @param y
+	 *            The y coordinate to draw
+	 * @param color
+	 *            The color to draw in
+	 */
+	public abstract void drawPixel(int x, int y, int color);
+
+	/**
+	 * Draws text to the screen! revolutionairy I know... The glyphs come from the {@link GlyphCache} of the font and are placed along the baseline with their advance and kerning, every glyph is drawn with {@link #drawGlyph(Glyph, int, int, int)}
+	 * 
+	 * @param x
+	 *            The x of the upper left corner
+	 * @param y
+	 *            The y of the upper left corner
+	 * @param text
+	 *            The text to draw
+	 * @param color
+	 *            The color to draw the text in. Colors without alpha are drawn opaque
+	 * @param f
+	 *            The font to draw the text in
+	 */
+	public void drawText(int x, int y, String text, int color, Font f) {
+		if (text == null) return;
+		if (color >>> 24 == 0) color |= ALPHA_MASK; // Text always ignored the alpha, colors without one have to stay visible
+		GlyphCache gc = GlyphCache.get(f);
+		float pen = x + translateX;
+		int baseline = y + translateY + gc.getAscent();
+		int previous = -1;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			Glyph g = gc.getGlyph(c);
+			pen += gc.getKerning(previous, c);
+			drawGlyph(g, (int) pen + g.left, baseline + g.top, color);
+			pen += g.advance;
+			previous = c;
+		}
+	}
+
+	/**
+	 * Draws the coverage of a single glyph of a text, clipped to the current clip
+	 * 
+	 * @param g
+	 *            The glyph
+	 * @param x
+	 *            The x coordinate of its upper left pixel in screen coordinates
+	 * @param y
+	 *            The y coordinate of its upper left pixel in screen coordinates
+	 * @param color
+	 *            The color of the text
+	 */
+	protected abstract void drawGlyph(Glyph g, int x, int y, int color);
+
+	/**
+	 * Gets the width in pixels of a string in a font
+	 * 
+	 * @param s
+	 *            The String
+	 * @param f
+	 *            The Font
+	 * @return
+	 */
+	public abstract int getTextWidth(String s, Font f);
+
+	/**
+	 * Resets the whole screen to one color. Abstract because every renderer has their own way to do it. If there is no other way, you have to iterate over every pixel in the field and call drawPixel for it.
+	 * 
+	 * @param color
+	 *            The color to clear to
+	 */
+	public abstract void clear(int color);
+
+	/**
+	 * Finishes the rendering process and draws the image to the graphics object given
+	 * 
+	 * @param g
+	 *            The graphics of the panel to draw on
+	 */
+	public abstract void finishUp(Graphics g, int w, int h);
+
+	/**
+	 * Restricts drawing to a rectangle until {@link #popClip()} is called. The rectangle is in the current (translated) coordinates and gets intersected with the current clip, so it can only get smaller.
+	 * 
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 * @param w
+	 *            The width of the rectangle
+	 * @param h
+	 *            The height of the rectangle
+	 */
+	public void pushClip(int x, int y, int w, int h) {
+		if (clipDepth + 4 > clipStack.length) clipStack = Arrays.copyOf(clipStack, clipStack.length * 2);
+		clipStack[clipDepth++] = clipX0;
+		clipStack[clipDepth++] = clipY0;
+		clipStack[clipDepth++] = clipX1;
+		clipStack[clipDepth++] = clipY1;
+
+		x += translateX;
+		y += translateY;
+		clipX0 = Math.max(clipX0, x);
+		clipY0 = Math.max(clipY0, y);
+		clipX1 = Math.max(clipX0, Math.min(clipX1, x + w));
+		clipY1 = Math.max(clipY0, Math.min(clipY1, y + h));
+	}
+
+	/**
+	 * Restores the clip rectangle that was active before the last call to {@link #pushClip(int, int, int, int)}
+	 */
+	public void popClip() {
+		if (clipDepth == 0) return;
+		clipY1 = clipStack[--clipDepth];
+		clipX1 = clipStack[--clipDepth];
+		clipY0 = clipStack[--clipDepth];
+		clipX0 = clipStack[--clipDepth];
+	}
+
+	/**
+	 * Moves the origin of the coordinates by the given amount until {@link #popTranslate()} is called
+	 * 
+	 * @param x
+	 *            The amount to move to the right
+	 * @param y
+	 *            The amount to move down
+	 */
+	public void pushTranslate(int x, int y) {
+		if (translateDepth + 2 > translateStack.length) translateStack = Arrays.copyOf(translateStack, translateStack.length * 2);
+		translateStack[translateDepth++] = translateX;
+		translateStack[translateDepth++] = translateY;
+		translateX += x;
+		translateY += y;
+	}
+
+	/**
+	 * Restores the translation that was active before the last call to {@link #pushTranslate(int, int)}
+	 */
+	public void popTranslate() {
+		if (translateDepth == 0) return;
+		translateY = translateStack[--translateDepth];
+		translateX = translateStack[--translateDepth];
+	}
+
+	/**
+	 * Gets the current clip rectangle
+	 * 
+	 * @return The clip rectangle in the current (translated) coordinates
+	 */
+	public Rectangle getClipBounds() {
+		return new Rectangle(clipX0 - translateX, clipY0 - translateY, clipX1 - clipX0, clipY1 - clipY0);
+	}
+
+	/**
+	 * Checks if a pixel lies inside the clip rectangle
+	 * 
+	 * @param x
+	 *            The x coordinate in screen coordinates (already translated)
+	 * @param y
+	 *            The y coordinate in screen coordinates (already translated)
+	 * @return True if the pixel may be drawn
+	 */
+	protected final boolean inClip(int x, int y) {
+		return x >= clipX0 && x < clipX1 && y >= clipY0 && y < clipY1;
+	}
+
+	/**
+	 * Sets how the following draw calls combine their colors with the ones already drawn.
+	 * 
+	 * @param mode
+	 *            The blend mode, one of the constants in {@link Blending}
+	 */
+	public void setBlendMode(int mode) {
+		blendMode = mode;
+	}
+
+	/**
+	 * Gets the blend mode the draw calls currently use
+	 * 
+	 * @return The blend mode, one of the constants in {@link Blending}
+	 */
+	public int getBlendMode() {
+		return blendMode;
+	}
+
+	/**
+	 * Sets how far the frame that gets drawn is between two updates. Called by the panel before every frame
+	 * 
+	 * @param alpha
+	 *            0 when the frame shows the moment of the last update, 1 for the next one
+	 */
+	public void setInterpolation(float alpha) {
+		interpolation = alpha;
+	}
+
+	/**
+	 * Gets how far the frame that gets drawn is between two updates. Moving objects can be drawn at previous + (current - previous) * alpha, so the motion stays smooth no matter how the frames and updates line up
+	 * 
+	 * @return A value from 0 (last update) to 1 (next update)
+	 */
+	public float getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * Sets how images that get drawn scaled are sampled
+	 * 
+	 * @param filter
+	 *            {@link Sampling#NEAREST} or {@link Sampling#BILINEAR}
+	 */
+	public void setFilter(int filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Gets how images that get drawn scaled are sampled
+	 * 
+	 * @return One of the constants in {@link Sampling}
+	 */
+	public int getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Draws a single pixel with the given blend mode instead of the current one
+	 * 
+	 * @param x
+	 *            The x coordinate to draw
+	 * @param y
+	 *            The y coordinate to draw
+	 * @param color
+	 *            The color to draw in
+	 * @param mode
+	 *            The blend mode for this pixel
+	 */
+	public void drawPixel(int x, int y, int color, int mode) {
+		int old = blendMode;
+		blendMode = mode;
+		drawPixel(x, y, color);
+		blendMode = old;
+	}
+
+	/**
+	 * Fills a rectangle with the given blend mode instead of the current one
+	 * 
+	 * @param x
+	 *            The x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 *            The y coordinate of the upper left corner of the rectangle
+	 * @param w
+	 *            The width of the rectangle
+	 * @param h
+	 *            The height of the rectangle
+	 * @param color
+	 *            The color of the rectangle
+	 * @param mode
+	 *            The blend mode for this rectangle
+	 */
+	public void fillRect(int x, int y, int w, int h, int color, int mode) {
+		int old = blendMode;
+		blendMode = mode;
+		fillRect(x, y, w, h, color);
+		blendMode = old;
+	}
+
+	/**
+	 * Draws an image with the given blend mode instead of the current one
+	 * 
+	 * @param img
+	 *            The Image to draw
+	 * @param x
+	 *            The upper left corner of the image
+	 * @param y
+	 *            The upper left corner of the image
+	 * @param mode
+	 *            The blend mode for this image
+	 */
+	public void drawImage(BufferedImage img, int x, int y, int mode) {
+		int old = blendMode;
+		blendMode = mode;
+		drawImage(img, x, y);
+		blendMode = old;
+	}
+
+	/**
+	 * Finishes the frame and only draws the areas that changed since the last presented frame to the graphics object. This only works if the graphics object still contains the last frame. Renderers that don't track changes draw everything.
+	 * 
+	 * @param g
+	 *            The graphics of the panel to draw on
+	 * @param w
+	 *            The width of the panel
+	 * @param h
+	 *            The height of the panel
+	 */
+	public void finishUpDirty(Graphics g, int w, int h) {
+		finishUp(g, w, h);
+		frameDone();
+	}
+
+	/**
+	 * Finishes the frame without drawing it anywhere. Used when there is no screen, the frame can be read from the renderer afterwards
+	 */
+	public void finishFrame() {
+		frameDone();
+	}
+
+	/**
+	 * Turns tracking of changed areas on or off. Needed for {@link #finishUpDirty(Graphics, int, int)} to draw only parts of the image
+	 * 
+	 * @param track
+	 *            True to track the changes
+	 */
+	public void setDirtyTracking(boolean track) {
+		dirty = track ? new DirtyRegion() : null;
+		drawn = track ? new DirtyRegion() : null;
+		lastDirty = track ? new DirtyRegion() : null;
+		presentAll = true;
+		clearAll = true;
+	}
+
+	/**
+	 * If the changed areas are being tracked
+	 * 
+	 * @return True if changes are tracked
+	 */
+	public boolean isDirtyTracking() {
+		return dirty != null;
+	}
+
+	/**
+	 * Lets {@link #clear(int)} only clear the areas that were drawn in the last frame instead of the whole clip. Only has an effect if changes are tracked. Scenes that redraw everything they need every frame, on top of a clear with the same color, can use this to leave untouched areas alone.
+	 * 
+	 * @param dirtyOnly
+	 *            True to only clear what was drawn in the last frame
+	 */
+	public void setClearDirtyOnly(boolean dirtyOnly) {
+		clearDirtyOnly = dirtyOnly;
+		clearAll = true;
+	}
+
+	/**
+	 * Gets the areas that changed in the current frame
+	 * 
+	 * @return The areas in screen coordinates or null if changes aren't tracked
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return dirty;
+	}
+
+	/**
+	 * Makes the next presentation draw the whole image, for example because the surface it's drawn on lost its contents
+	 */
+	public void markAllDirty() {
+		presentAll = true;
+	}
+
+	/**
+	 * Marks the whole screen as changed in the current frame. Needed after changing the pixels directly, for example with {@link #getFrameBuffer()}
+	 */
+	public void markAllChanged() {
+		markDirty(0, 0, width, height);
+	}
+
+	/**
+	 * Adds an area to the changed areas, if they are being tracked
+	 * 
+	 * @param x0
+	 *            The left edge in screen coordinates (inclusive)
+	 * @param y0
+	 *            The top edge in screen coordinates (inclusive)
+	 * @param x1
+	 *            The right edge in screen coordinates (exclusive)
+	 * @param y1
+	 *            The bottom edge in screen coordinates (exclusive)
+	 */
+	protected final void markDirty(int x0, int y0, int x1, int y1) {
+		if (dirty == null) return;
+		dirty.add(x0, y0, x1, y1);
+		drawn.add(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Marks an area that was cleared as changed. It has to be presented, but unlike drawn areas it doesn't have to be cleared again in the next frame
+	 * 
+	 * @param x0
+	 *            The left edge in screen coordinates (inclusive)
+	 * @param y0
+	 *            The top edge in screen coordinates (inclusive)
+	 * @param x1
+	 *            The right edge in screen coordinates (exclusive)
+	 * @param y1
+	 *            The bottom edge in screen coordinates (exclusive)
+	 */
+	protected final void markCleared(int x0, int y0, int x1, int y1) {
+		if (dirty != null) dirty.add(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Checks if clear should only clear the areas drawn in the last frame
+	 * 
+	 * @return True if only the areas in {@link #lastDirty} should be cleared
+	 */
+	protected final boolean clearOnlyDirty() {
+		return dirty != null && clearDirtyOnly && !clearAll;
+	}
+
+	/**
+	 * Moves the changes of the current frame to the last frame. Has to be called after each presentation
+	 */
+	protected final void frameDone() {
+		if (dirty == null) return;
+		lastDirty.set(drawn);
+		dirty.clear();
+		drawn.clear();
+		presentAll = false;
+		clearAll = false;
+	}
+
+	/**
+	 * Draws the parts of an image that are in the region to the graphics object, scaled to the given size
+	 * 
+	 * @param g
+	 *            The graphics of the panel to draw on
+	 * @param img
+	 *            The image of the whole frame
+	 * @param w
+	 *            The width of the panel
+	 * @param h
+	 *            The height of the panel
+	 * @param region
+	 *            The areas to draw in screen coordinates
+	 */
+	protected void drawRegion(Graphics g, Image img, int w, int h, DirtyRegion region) {
+		Shape clip = g.getClip();
+		int margin = w == width && h == height ? 0 : 1; // Scaling can move the edges by a pixel
+		for (int i = 0; i < region.size(); i++) {
+			Rectangle r = region.get(i);
+			int dx0 = (int) ((long) r.x * w / width) - margin;
+			int dy0 = (int) ((long) r.y * h / height) - margin;
+			int dx1 = (int) (((long) (r.x + r.width) * w + width - 1) / width) + margin;
+			int dy1 = (int) (((long) (r.y + r.height) * h + height - 1) / height) + margin;
+			g.setClip(dx0, dy0, dx1 - dx0, dy1 - dy0); // Drawing the whole image clipped gives the same pixels as drawing it all
+			g.drawImage(img, 0, 0, w, h, null);
+		}
+		g.setClip(clip);
+	}
+
+	/**
+	 * Creates an opaque image to draw into. Without a screen there is no device to ask for a compatible image, so a plain int image is created instead
+	 * 
+	 * @param w
+	 *            The width of the image
+	 * @param h
+	 *            The height of the image
+	 * @return The image
+	 */
+	protected static BufferedImage createScreenImage(int w, int h) {
+		if (GraphicsEnvironment.isHeadless()) return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(w, h, Transparency.OPAQUE);
+	}
+
+	/**
+	 * Clears the screen to black
+	 */
+	public void clear() {
+		clear(BLACK);
+	}
+
+	/**
+	 * Fills a rectangle on the screen with the given color
+	 * 
+	 * @param x
+	 *            The x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 *            The y coordinate of the upper left corner of the rectangle
+	 * @param w
+	 *            The width of the rectangle
+	 * @param h
+	 *            The height of the rectangle
+	 * @param color
+	 *            The color of the rectangle
+	 */
+	public void fillRect(int x, int y, int w, int h, int color) {
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+		for (int yy = y; yy <= y + h; yy++) {
+			fillSpan(x, yy, w + 1, color);
+		}
+	}
+
+	/**
+	 * Fills a horizontal run of pixels. Most of the filled primitives end up here, so renderers with direct access to their pixels should override this
+	 * 
+	 * @param x
+	 *            The x coordinate of the first pixel
+	 * @param y
+	 *            The y coordinate of the row
+	 * @param w
+	 *            The amount of pixels to fill
+	 * @param color
+	 *            The color to fill the pixels with
+	 */
+	protected void fillSpan(int x, int y, int w, int color) {
+		for (int xx = x; xx < x + w; xx++) {
+			drawPixel(xx, y, color);
+		}
+	}
+
+	/**
+	 * 
+	 * @param img
+	 *            The Image to draw
+	 * @param x
+	 *            The upper left corner of the image
+	 * @param y
+	 *            The upper left corner of the image
+	 */
+	public void drawImage(Image img, int x, int y) {
+		if (img instanceof BufferedImage) drawImage((BufferedImage) img, x, y);
+		else {
+			BufferedImage nImg = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+			nImg.getGraphics().drawImage(img, x, y, null);
+			drawImage(nImg, x, y);
+		}
+	}
+
+	/**
+	 * 
+	 * @param img
+	 *            The Image to draw
+	 * @param x
+	 *            The upper left corner of the image
+	 * @param y
+	 *            The upper left corner of the image
+	 */
+	public void drawImage(BufferedImage img, int x, int y) {
+		int w = img.getWidth();
+		int h = img.getHeight();
+		int[] pi = new int[w * h];
+		pi = img.getRGB(0, 0, w, h, pi, 0, w);
+		for (int yy = 0; yy < h; yy++) {
+			for (int xx = 0; xx < w; xx++) {
+				if (supportsAlpha() && (pi[xx + yy * w] >> 24 & 0xFF) <= 0) continue; // alpha = 0
+				drawPixel(x + xx, y + yy, pi[xx + yy * w]);
+			}
+		}
+	}
+
+	/**
+	 * Draws an image scaled to the given size. The pixels are sampled straight from the image, see {@link #drawImage(PixImage, int, int, int, int)}
+	 * 
+	 * The image gets wrapped into a new PixImage by every call. That's free for int images, but every other type is copied completely each time, and a wrapped image never has mipmaps. Images that get drawn scaled often should be turned into a PixImage once (with {@link PixImage#buildMipmaps()} if they get drawn smaller) and drawn with {@link #drawImage(PixImage, int, int, int, int)}
+	 * 
+	 * @param img
+	 *            The Image to draw
+	 * @param x
+	 *            The upper left corner of the image
+	 * @param y
+	 *            The upper left corner of the image
+	 * @param w
+	 *            The width to draw the image with
+	 * @param h
+	 *            The height to draw the image with
+	 */
+	public void drawImage(BufferedImage img, int x, int y, int w, int h) {
+		drawImage(PixImage.wrap(img), x, y, w, h);
+	}
+
+	/**
+	 * Draws a PixImage to the screen. Only the pixels in its runs are drawn, transparent ones are skipped unless the blend mode writes them ({@link Blending#skipsTransparent(int)})
+	 * 
+	 * @param img
+	 *            The image to draw
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 */
+	public void drawImage(PixImage img, int x, int y) {
+		if (!Blending.skipsTransparent(blendMode)) {
+			for (int yy = 0; yy < img.getHeight(); yy++)
+				for (int xx = 0; xx < img.getWidth(); xx++)
+					drawPixel(x + xx, y + yy, img.getPixel(xx, yy));
+			return;
+		}
+		int[] runs = img.getRuns();
+		for (int yy = 0; yy < img.getHeight(); yy++) {
+			for (int r = runs[yy]; r < runs[yy + 1]; r += 2) {
+				int len = runs[r + 1] & ~PixImage.TRANSLUCENT_RUN;
+				for (int xx = runs[r]; xx < runs[r] + len; xx++)
+					drawPixel(x + xx, y + yy, img.getPixel(xx, yy));
+			}
+		}
+	}
+
+	/**
+	 * Draws a PixImage scaled to the given size, sampled with the current filter. If the image has mipmaps, the closest one gets used. Only the part inside the clip is sampled, row by row into a reused buffer
+	 * 
+	 * @param img
+	 *            The image to draw
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 * @param w
+	 *            The width to draw the image with
+	 * @param h
+	 *            The height to draw the image with
+	 */
+	public void drawImage(PixImage img, int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) return;
+		x += translateX;
+		y += translateY;
+		int x0 = Math.max(x, clipX0), y0 = Math.max(y, clipY0);
+		int x1 = Math.min(x + w, clipX1), y1 = Math.min(y + h, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		PixImage src = img.getMipmap(w, h);
+		long du = ((long) src.getWidth() << 16) / w, dv = ((long) src.getHeight() << 16) / h;
+		int len = x1 - x0;
+		int[] row = getRowBuffer(len);
+		long u = du / 2 + (x0 - x) * du;
+		for (int yy = y0; yy < y1; yy++) {
+			Sampling.sampleSpan(src, row, 0, len, u, dv / 2 + (yy - y) * dv, du, 0, filter);
+			drawRow(row, x0, yy, len);
+		}
+	}
+
+	/**
+	 * Draws a PixImage transformed. Only the bounding box of the transformed image gets visited: every row is mapped back into the image once and then stepped through with fixed point numbers. Rotations by multiples of 90 degrees and flips read the pixels directly without any sampling
+	 * 
+	 * @param img
+	 *            The image to draw
+	 * @param t
+	 *            Maps image coordinates (0 to width, 0 to height) to screen coordinates
+	 */
+	public void drawImage(PixImage img, AffineTransform t) {
+		double[] m = new double[6];
+		t.getMatrix(m);
+		if (m[0] == 1 && m[1] == 0 && m[2] == 0 && m[3] == 1 && m[4] == Math.rint(m[4]) && m[5] == Math.rint(m[5])) {
+			drawImage(img, (int) m[4], (int) m[5]); // Just moved
+			return;
+		}
+		AffineTransform inverse;
+		try {
+			inverse = t.createInverse();
+		} catch (NoninvertibleTransformException e) {
+			return; // Squashed to a line, nothing to see
+		}
+
+		Rectangle b = getTransformedBounds(img, t);
+		int x0 = Math.max(b.x + translateX, clipX0), y0 = Math.max(b.y + translateY, clipY0);
+		int x1 = Math.min(b.x + b.width + translateX, clipX1), y1 = Math.min(b.y + b.height + translateY, clipY1);
+		if (x0 >= x1 || y0 >= y1) return;
+		markDirty(x0, y0, x1, y1);
+
+		// Shrunk images read from a mipmap, the inverse has to map into its smaller size
+		PixImage src = img.getMipmap((int) (img.getWidth() * Math.hypot(m[0], m[1])), (int) (img.getHeight() * Math.hypot(m[2], m[3])));
+		double[] im = new double[6];
+		inverse.getMatrix(im);
+		if (src != img) {
+			double kx = (double) src.getWidth() / img.getWidth(), ky = (double) src.getHeight() / img.getHeight();
+			im[0] *= kx;
+			im[2] *= kx;
+			im[4] *= kx;
+			im[1] *= ky;
+			im[3] *= ky;
+			im[5] *= ky;
+		}
+		long du = Math.round(im[0] * 0x10000), dv = Math.round(im[1] * 0x10000);
+		boolean quadrant = isQuadrant(im) && im[4] == Math.rint(im[4]) && im[5] == Math.rint(im[5]);
+		long uLimit = (long) src.getWidth() << 16, vLimit = (long) src.getHeight() << 16;
+		int[] p = src.getPixels();
+		int mask = src.getAlphaMask(), scan = src.getScan();
+		int step = (int) im[0] + (int) im[1] * scan;
+		int[] row = getRowBuffer(x1 - x0);
+
+		for (int yy = y0; yy < y1; yy++) {
+			// The center of the leftmost pixel of the bounding box in this row, mapped into the image. Computed the same way no matter how the row is clipped
+			double cx = b.x + 0.5, cy = yy - translateY + 0.5;
+			long u = (long) Math.floor((im[0] * cx + im[2] * cy + im[4]) * 0x10000);
+			long v = (long) Math.floor((im[1] * cx + im[3] * cy + im[5]) * 0x10000);
+			int skip = x0 - translateX - b.x;
+			u += skip * du;
+			v += skip * dv;
+
+			// The part of the row that lies inside the image
+			long lo = 0, hi = x1 - x0;
+			lo = Math.max(lo, firstInside(u, du, uLimit));
+			hi = Math.min(hi, endInside(u, du, uLimit));
+			lo = Math.max(lo, firstInside(v, dv, vLimit));
+			hi = Math.min(hi, endInside(v, dv, vLimit));
+			if (lo >= hi) continue;
+			int len = (int) (hi - lo);
+			u += lo * du;
+			v += lo * dv;
+
+			if (quadrant) {
+				for (int i = 0, s = src.getOffset() + (int) (u >> 16) + (int) (v >> 16) * scan; i < len; i++, s += step)
+					row[i] = p[s] | mask;
+			} else Sampling.sampleSpan(src, row, 0, len, u, v, du, dv, filter);
+			drawRow(row, x0 + (int) lo, yy, len);
+		}
 	}
 
 	/**
-	 * Whether or not alpha colors (translucency) are supported or not
+	 * Draws a PixImage rotated around its center
 	 * 
-	 * @return True if alpha is supported false otherwise
+	 * @param img
+	 *            The image to draw
+	 * @param x
+	 *            The x coordinate of the upper left corner of the image before rotating
+	 * @param y
+	 *            The y coordinate of the upper left corner of the image before rotating
+	 * @param angle
+	 *            The angle in radians, clockwise
 	 */
-	public abstract boolean supportsAlpha();
+	public void drawImageRotated(PixImage img, int x, int y, double angle) {
+		AffineTransform t = AffineTransform.getTranslateInstance(x + img.getWidth() / 2.0, y + img.getHeight() / 2.0);
+		t.rotate(angle);
+		t.translate(-img.getWidth() / 2.0, -img.getHeight() / 2.0);
+		drawImage(img, t);
+	}
 
 	/**
-	 * Draws a single color on a single pixel in the panel. (0|0) is in the upper left corner and coordinates go up when the point is going to the lower-right corner.
+	 * Draws a PixImage rotated by a multiple of 90 degrees. No sampling is needed, the pixels are copied
 	 * 
+	 * @param img
+	 *            The image to draw
 	 * @param x
-	 *            The x coordinate to draw
+	 *            The x coordinate of the upper left corner of the rotated image
 	 * @param y
-	 *            The y coordinate to draw
-	 * @param color
-	 *            The color to draw in
+	 *            The y coordinate of the upper left corner of the rotated image
+	 * @param quarters
+	 *            The amount of quarter turns, clockwise
 	 */
-	public abstract void drawPixel(int x, int y, int color);
+	public void drawImageRotated90(PixImage img, int x, int y, int quarters) {
+		int w = img.getWidth(), h = img.getHeight();
+		switch (quarters & 3) {
+			case 0:
+				drawImage(img, x, y);
+				break;
+			case 1:
+				drawImage(img, new AffineTransform(0, 1, -1, 0, x + h, y));
+				break;
+			case 2:
+				drawImage(img, new AffineTransform(-1, 0, 0, -1, x + w, y + h));
+				break;
+			default:
+				drawImage(img, new AffineTransform(0, -1, 1, 0, x, y + w));
+				break;
+		}
+	}
 
 	/**
-	 * Draws text to the screen! revolutionairy I know...
+	 * Draws a PixImage mirrored. No sampling is needed, the pixels are copied
 	 * 
+	 * @param img
+	 *            The image to draw
 	 * @param x
-	 *            The x of the upper left corner
+	 *            The x coordinate of the upper left corner
 	 * @param y
-	 *            The y of the upper left corner
-	 * @param text
-	 *            The text to draw
-	 * @param color
-	 *            The color to draw the text in
-	 * @param font
-	 *            The font to draw the text in
-	 * @param mods
-	 *            The modifiers for the font
-	 * @param size
-	 *            The size to draw the text in
+	 *            The y coordinate of the upper left corner
+	 * @param horizontal
+	 *            True to swap left and right
+	 * @param vertical
+	 *            True to swap top and bottom
 	 */
-	public abstract void drawText(int x, int y, String text, int color, Font f);
+	public void drawImageFlipped(PixImage img, int x, int y, boolean horizontal, boolean vertical) {
+		drawImage(img, new AffineTransform(horizontal ? -1 : 1, 0, 0, vertical ? -1 : 1, horizontal ? x + img.getWidth() : x, vertical ? y + img.getHeight() : y));
+	}
 
 	/**
-	 * Gets the width in pixels of a string in a font
+	 * Gets the pixels a transformed image might touch
 	 * 
-	 * @param s
-	 *            The String
-	 * @param f
-	 *            The Font
-	 * @return
+	 * @param img
+	 *            The image
+	 * @param t
+	 *            The transformation
+	 * @return The bounds in local coordinates (not translated)
 	 */
-	public abstract int getTextWidth(String s, Font f);
+	protected static Rectangle getTransformedBounds(PixImage img, AffineTransform t) {
+		double[] c = { 0, 0, img.getWidth(), 0, 0, img.getHeight(), img.getWidth(), img.getHeight() };
+		t.transform(c, 0, c, 0, 4);
+		double minX = Math.min(Math.min(c[0], c[2]), Math.min(c[4], c[6])), maxX = Math.max(Math.max(c[0], c[2]), Math.max(c[4], c[6]));
+		double minY = Math.min(Math.min(c[1], c[3]), Math.min(c[5], c[7])), maxY = Math.max(Math.max(c[1], c[3]), Math.max(c[5], c[7]));
+		int x = (int) Math.floor(minX), y = (int) Math.floor(minY);
+		return new Rectangle(x, y, (int) Math.ceil(maxX) - x, (int) Math.ceil(maxY) - y);
+	}
 
 	/**
-	 * Resets the whole screen to one color. Abstract because every renderer has their own way to do it. If there is no other way, you have to iterate over every pixel in the field and call drawPixel for it.
-	 * 
-	 * @param color
-	 *            The color to clear to
+	 * The first step i for which 0 <= a + i * d < limit can hold
 	 */
-	public abstract void clear(int color);
+	private static long firstInside(long a, long d, long limit) {
+		if (d == 0) return a >= 0 && a < limit ? 0 : Long.MAX_VALUE;
+		if (d > 0) return -Math.floorDiv(a, d); // ceil(-a / d)
+		return Math.floorDiv(a - limit, -d) + 1;
+	}
 
 	/**
-	 * Finishes the rendering process and draws the image to the graphics object given
-	 * 
-	 * @param g
-	 *            The graphics of the panel to draw on
+	 * The first step i after the ones for which 0 <= a + i * d < limit holds
 	 */
-	public abstract void finishUp(Graphics g, int w, int h);
+	private static long endInside(long a, long d, long limit) {
+		if (d == 0) return Long.MAX_VALUE;
+		if (d > 0) return -Math.floorDiv(a - limit, d); // ceil((limit - a) / d)
+		return Math.floorDiv(a, -d) + 1;
+	}
 
 	/**
-	 * Clears the screen to black
+	 * Checks if a matrix only rotates by multiples of 90 degrees and flips
 	 */
-	public void clear() {
-		clear(BLACK);
+	private static boolean isQuadrant(double[] m) {
+		boolean straight = m[1] == 0 && m[2] == 0 && Math.abs(m[0]) == 1 && Math.abs(m[3]) == 1;
+		boolean turned = m[0] == 0 && m[3] == 0 && Math.abs(m[1]) == 1 && Math.abs(m[2]) == 1;
+		return straight || turned;
 	}
 
 	/**
-	 * Fills a rectangle on the screen with the given color
+	 * Draws a row of colors that is already translated and clipped, with the current blend mode. Renderers with their own pixels should override this
 	 * 
+	 * @param row
+	 *            The colors, starting at index 0
 	 * @param x
-	 *            The x coordinate of the upper left corner of the rectangle
+	 *            The x coordinate of the first pixel in screen coordinates
 	 * @param y
-	 *            The y coordinate of the upper left corner of the rectangle
-	 * @param w
-	 *            The width of the rectangle
-	 * @param h
-	 *            The height of the rectangle
-	 * @param color
-	 *            The color of the rectangle
+	 *            The y coordinate in screen coordinates
+	 * @param len
+	 *            The amount of pixels
 	 */
-	public void fillRect(int x, int y, int w, int h, int color) {
-		if (!supportsAlpha()) color |= ALPHA_MASK;
-		for (int yy = y; yy <= y + h; yy++) {
-			for (int xx = x; xx <= x + w; xx++) {
-				drawPixel(xx, yy, color);
-			}
-		}
+	protected void drawRow(int[] row, int x, int y, int len) {
+		for (int i = 0; i < len; i++)
+			drawPixel(x + i - translateX, y - translateY, row[i]);
 	}
 
 	/**
+	 * Gets an array that can hold a row of colors. The array is reused by every call
 	 * 
-	 * @param img
-	 *            The Image to draw
-	 * @param x
-	 *            The upper left corner of the image
-	 * @param y
-	 *            The upper left corner of the image
+	 * @param len
+	 *            The amount of colors needed
+	 * @return An array of at least that length
 	 */
-	public void drawImage(Image img, int x, int y) {
-		if (img instanceof BufferedImage) drawImage((BufferedImage) img, x, y);
-		else {
-			BufferedImage nImg = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-			nImg.getGraphics().drawImage(img, x, y, null);
-			drawImage(nImg, x, y);
-		}
+	protected final int[] getRowBuffer(int len) {
+		if (rowBuffer == null || rowBuffer.length < len) rowBuffer = new int[Math.max(len, width)];
+		return rowBuffer;
 	}
 
 	/**
+	 * Draws a sprite from an atlas. The sprite is placed as if it still had its transparent borders
 	 * 
-	 * @param img
-	 *            The Image to draw
+	 * @param region
+	 *            The region of the sprite
 	 * @param x
-	 *            The upper left corner of the image
+	 *            The x coordinate of the upper left corner of the untrimmed sprite
 	 * @param y
-	 *            The upper left corner of the image
+	 *            The y coordinate of the upper left corner of the untrimmed sprite
 	 */
-	public void drawImage(BufferedImage img, int x, int y) {
-		int w = img.getWidth();
-		int h = img.getHeight();
-		int[] pi = new int[w * h];
-		pi = img.getRGB(0, 0, w, h, pi, 0, w);
-		for (int yy = 0; yy < h; yy++) {
-			for (int xx = 0; xx < w; xx++) {
-				if (supportsAlpha() && (pi[xx + yy * w] >> 24 & 0xFF) <= 0) continue; // alpha = 0
-				drawPixel(x + xx, y + yy, pi[xx + yy * w]);
-			}
-		}
+	public void drawImage(SpriteAtlas.Region region, int x, int y) {
+		if (region.page < 0) return;
+		drawImage(region.image, x + region.offsetX, y + region.offsetY);
 	}
 
 	/**
+	 * Draws a PixImage using the given blend mode for this call only
 	 * 
 	 * @param img
-	 *            The Image to draw
+	 *            The image to draw
 	 * @param x
-	 *            The upper left corner of the image
+	 *            The x coordinate of the upper left corner
 	 * @param y
-	 *            The upper left corner of the image
+	 *            The y coordinate of the upper left corner
+	 * @param mode
+	 *            The blend mode, one of the constants in {@link Blending}
 	 */
-	public void drawImage(BufferedImage img, int x, int y, int w, int h) {
-		BufferedImage img2 = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-		img2.getGraphics().drawImage(img, 0, 0, w, h, null);
-		drawImage(img2, x, y);
+	public void drawImage(PixImage img, int x, int y, int mode) {
+		int old = blendMode;
+		blendMode = mode;
+		drawImage(img, x, y);
+		blendMode = old;
 	}
 
 	/**
@@ -275,9 +1119,7 @@ public abstract class Renderer {
 	public void fastHorizontalLine(int x, int y, int w, int thickness, int color) {
 		if (!supportsAlpha()) color |= ALPHA_MASK;
 		for (int l = -thickness / 2; l <= thickness / 2; l++) {
-			for (int i = x; i < x + w; i++) {
-				drawPixel(i, y + l, color);
-			}
+			fillSpan(x, y + l, w, color);
 		}
 	}
 
@@ -299,7 +1141,7 @@ public abstract class Renderer {
 		if (!supportsAlpha()) color |= ALPHA_MASK;
 		for (int l = -thickness / 2; l <= thickness / 2; l++) {
 			for (int i = y; i < y + h; i++) {
-				drawPixel(x, i + l, color);
+				drawPixel(x + l, i, color);
 			}
 		}
 	}
@@ -319,25 +1161,53 @@ public abstract class Renderer {
 	 *            The color the line should be in
 	 */
 	public void drawLine(float x1, float y1, float x2, float y2, int color) {
-		if (!supportsAlpha()) color |= ALPHA_MASK;
-		float deltaX = (x2 - x1);
-		float deltaY = (y2 - y1);
-		float xMod = Math.signum(deltaX);
-		float yMod = Math.signum(deltaY);
-
-		if (deltaX == 0 && deltaY == 0) {
-			drawPixel((int) x1, (int) y1, color);
-			return;
-		}
+		drawLine((int) x1, (int) y1, (int) x2, (int) y2, color);
+	}
 
-		if (Math.abs(deltaX) > Math.abs(deltaY)) {
-			yMod = deltaY / deltaX * Math.signum(deltaX);
+	/**
+	 * Draws a line between the two points given and the specified color The thickness of the line will be 1. Uses Bresenham's algorithm, the pixels of a flat line that lie in the same row are drawn as one span
+	 * 
+	 * @param x1
+	 *            The x coordinate of the first point
+	 * @param y1
+	 *            The y coordinate of the first point
+	 * @param x2
+	 *            The x coordinate of the second point
+	 * @param y2
+	 *            The y coordinate of the second point
+	 * @param color
+	 *            The color the line should be in
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2, int color) {
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+		int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1);
+		int sx = x1 < x2 ? 1 : -1, sy = y1 < y2 ? 1 : -1;
+		int x = x1, y = y1;
+		if (dx >= dy) {
+			int err = dx >> 1, start = x1;
+			for (int i = 0; i < dx; i++) {
+				x += sx;
+				err -= dy;
+				if (err < 0) {
+					err += dx;
+					int last = x - sx; // The row ends one pixel before the step
+					fillSpan(Math.min(start, last), y, Math.abs(last - start) + 1, color);
+					y += sy;
+					start = x;
+				}
+			}
+			fillSpan(Math.min(start, x), y, Math.abs(x - start) + 1, color);
 		} else {
-			xMod = deltaX / deltaY * Math.signum(deltaY);
-		}
-
-		for (float i = 0; i <= Math.max(Math.abs(deltaX), Math.abs(deltaY)); i++) {
-			drawPixel((int) (x1 + xMod * i), (int) (y1 + yMod * i), color);
+			int err = dy >> 1;
+			for (int i = 0; i <= dy; i++) {
+				drawPixel(x, y, color);
+				y += sy;
+				err -= dx;
+				if (err < 0) {
+					err += dy;
+					x += sx;
+				}
+			}
 		}
 	}
 
@@ -358,30 +1228,51 @@ public abstract class Renderer {
 	 *            The color the line should be in
 	 */
 	public void drawLine(float x1, float y1, float x2, float y2, int thickness, int color) {
-		if (thickness == 1) {
+		drawLine((int) x1, (int) y1, (int) x2, (int) y2, thickness, color);
+	}
+
+	/**
+	 * Draws a line with the given thickness. The line is filled as a rectangle around the two points, so every pixel gets drawn once
+	 * 
+	 * @param x1
+	 *            The x coordinate of the first point
+	 * @param y1
+	 *            The y coordinate of the first point
+	 * @param x2
+	 *            The x coordinate of the second point
+	 * @param y2
+	 *            The y coordinate of the second point
+	 * @param thickness
+	 *            The thickness of the line
+	 * @param color
+	 *            The color the line should be in
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2, int thickness, int color) {
+		if (thickness <= 1) {
 			drawLine(x1, y1, x2, y2, color);
 			return;
 		}
+		double dx = x2 - x1, dy = y2 - y1;
+		double len = Math.sqrt(dx * dx + dy * dy);
+		double ux = len == 0 ? 1 : dx / len, uy = len == 0 ? 0 : dy / len;
+		double half = thickness / 2.0;
+		// The points are pixel centers and the line reaches half a pixel past them, like the thin one
+		double ax = x1 + 0.5 - ux * 0.5, ay = y1 + 0.5 - uy * 0.5;
+		double bx = x2 + 0.5 + ux * 0.5, by = y2 + 0.5 + uy * 0.5;
+		double nx = -uy * half, ny = ux * half;
+		int[] xs = { fixed(ax + nx), fixed(bx + nx), fixed(bx - nx), fixed(ax - nx) };
+		int[] ys = { fixed(ay + ny), fixed(by + ny), fixed(by - ny), fixed(ay - ny) };
+		fillPolygonFixed(xs, ys, 4, color);
+	}
 
-		float deltaX = (x2 - x1);
-		float deltaY = (y2 - y1);
-		float xMod = Math.signum(deltaX);
-		float yMod = Math.signum(deltaY);
-		float l = -(float) Math.ceil(thickness / 2);
-
-		if (Math.abs(deltaX) > Math.abs(deltaY)) yMod = deltaY / deltaX * Math.signum(deltaX);
-		else xMod = deltaX / deltaY * Math.signum(deltaY);
-
-		float xModI = yMod == 0 ? 0 : xMod == 0 ? yMod : 1 / xMod;
-		float yModI = xMod == 0 ? 0 : yMod == 0 ? xMod : -1 / yMod;
+	/** How many ints an edge takes in {@link #fillPolygonFixed(int[], int[], int, int)} */
+	private static final int EDGE_SIZE = 10;
 
-		float t = (float) Math.sqrt(xModI * xModI + yModI * yModI);
-		xModI /= t;
-		yModI /= t;
+	/** Polygon points are clamped to this distance from the origin, so the 16.16 coordinates and the differences between them fit into an int */
+	public static final int MAX_POLYGON_COORD = (1 << 14) - 1;
 
-		for (float i = 0; i <= Math.max(Math.abs(deltaX), Math.abs(deltaY)); i++) {
-			drawLine((int) (x1 + xMod * i + xModI * l), (int) (y1 + yMod * i + yModI * l), (int) (x1 + xMod * i - xModI * l), (int) (y1 + yMod * i - yModI * l), color);
-		}
+	private static int fixed(double v) {
+		return (int) Math.round(Math.max(-MAX_POLYGON_COORD, Math.min(MAX_POLYGON_COORD, v)) * 0x10000);
 	}
 
 	/**
@@ -401,7 +1292,7 @@ public abstract class Renderer {
 		if (xPoints.length == 0 || yPoints.length == 0) return;
 		int ox = xPoints[0], oy = yPoints[0];
 		for (int i = 1; i < Math.min(xPoints.length, yPoints.length); i++) {
-			drawLine(ox, oy, xPoints[i], yPoints[i], color);
+			drawLine(ox, oy, xPoints[i], yPoints[i], thickness, color);
 			ox = xPoints[i];
 			oy = yPoints[i];
 		}
@@ -421,6 +1312,138 @@ public abstract class Renderer {
 		drawPolygon(xPoints, yPoints, 1, color);
 	}
 
+	/**
+	 * Fills a polygon on the screen. The last point is connected to the first one. Pixels whose centers are inside the polygon are filled, self intersecting polygons use the even-odd rule
+	 * 
+	 * @param xPoints
+	 *            The x coordinates of the points
+	 * @param yPoints
+	 *            The y coordinates of the points
+	 * @param color
+	 *            The color of the polygon
+	 */
+	public void fillPolygon(int[] xPoints, int[] yPoints, int color) {
+		int n = Math.min(xPoints.length, yPoints.length);
+		int[] xs = new int[n], ys = new int[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = Math.max(-MAX_POLYGON_COORD, Math.min(MAX_POLYGON_COORD, xPoints[i])) << 16;
+			ys[i] = Math.max(-MAX_POLYGON_COORD, Math.min(MAX_POLYGON_COORD, yPoints[i])) << 16;
+		}
+		fillPolygonFixed(xs, ys, n, color);
+	}
+
+	/**
+	 * Fills a polygon given in 16.16 fixed point coordinates with a scanline fill. The edges are sorted by the first row they touch, then every row intersects the active edges and fills the spans between pairs of intersections.
+	 * 
+	 * @param xs
+	 *            The x coordinates of the points in 16.16 fixed point
+	 * @param ys
+	 *            The y coordinates of the points in 16.16 fixed point
+	 * @param n
+	 *            The amount of points
+	 * @param color
+	 *            The color of the polygon
+	 */
+	protected void fillPolygonFixed(int[] xs, int[] ys, int n, int color) {
+		if (n < 3) return;
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+
+		// Edge table: first row, end row (exclusive), upper point, dx, dy. Then the stepping state: x, remainder, x step, remainder step
+		int[] edges = new int[n * EDGE_SIZE];
+		int count = 0;
+		int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			int j = i + 1 == n ? 0 : i + 1;
+			int x0 = xs[i], y0 = ys[i], x1 = xs[j], y1 = ys[j];
+			if (y0 > y1) {
+				int t = x0;
+				x0 = x1;
+				x1 = t;
+				t = y0;
+				y0 = y1;
+				y1 = t;
+			}
+			// Rows whose centers lie in [y0, y1)
+			int first = (y0 - 0x8000 + 0xFFFF) >> 16;
+			int end = (y1 - 0x8000 + 0xFFFF) >> 16;
+			if (first >= end) continue;
+			int e = count++ * EDGE_SIZE;
+			edges[e] = first;
+			edges[e + 1] = end;
+			edges[e + 2] = x0;
+			edges[e + 3] = y0;
+			edges[e + 4] = x1 - x0;
+			edges[e + 5] = y1 - y0;
+			minRow = Math.min(minRow, first);
+			maxRow = Math.max(maxRow, end);
+		}
+		if (count == 0) return;
+
+		// Only rows inside the clip matter
+		minRow = Math.max(minRow, clipY0 - translateY);
+		maxRow = Math.min(maxRow, clipY1 - translateY);
+
+		// Insertion sort by the first row, polygons have few edges
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			int e = i * EDGE_SIZE, k = i;
+			while (k > 0 && edges[order[k - 1]] > edges[e]) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = e;
+		}
+
+		int[] active = new int[count];
+		int activeCount = 0, next = 0;
+		int[] crossings = new int[count];
+		for (int row = minRow; row < maxRow; row++) {
+			while (next < count && edges[order[next]] <= row) {
+				// x = x0 + dx * (center - y0) / dy, split into a whole part and a remainder, so stepping stays exact
+				int e = order[next++];
+				int dy = edges[e + 5];
+				long num = (((long) row << 16) + 0x8000 - edges[e + 3]) * edges[e + 4];
+				long q = Math.floorDiv(num, dy);
+				edges[e + 6] = (int) (edges[e + 2] + q);
+				edges[e + 7] = (int) (num - q * dy);
+				long step = (long) edges[e + 4] << 16;
+				q = Math.floorDiv(step, dy);
+				edges[e + 8] = (int) q;
+				edges[e + 9] = (int) (step - q * dy);
+				active[activeCount++] = e;
+			}
+
+			int c = 0;
+			for (int i = 0; i < activeCount; i++) {
+				int e = active[i];
+				if (edges[e + 1] <= row) { // Edge ended
+					active[i--] = active[--activeCount];
+					continue;
+				}
+				int x = edges[e + 6] + (edges[e + 7] > 0 ? 1 : 0); // Rounded up, a center is inside if it's not left of the edge
+				edges[e + 6] += edges[e + 8];
+				edges[e + 7] += edges[e + 9];
+				if (edges[e + 7] >= edges[e + 5]) {
+					edges[e + 7] -= edges[e + 5];
+					edges[e + 6]++;
+				}
+				int k = c++;
+				while (k > 0 && crossings[k - 1] > x) { // Insertion sort, the list is short and mostly sorted already
+					crossings[k] = crossings[k - 1];
+					k--;
+				}
+				crossings[k] = x;
+			}
+
+			for (int i = 0; i + 1 < c; i += 2) {
+				// Pixels whose centers are in [a, b)
+				int a = (crossings[i] - 0x8000 + 0xFFFF) >> 16;
+				int b = (crossings[i + 1] - 0x8000 + 0xFFFF) >> 16;
+				if (a < b) fillSpan(a, row, b - a, color);
+			}
+		}
+	}
+
 	/**
 	 * Renders text to the screen and cuts off after width
 	 * 
@@ -439,13 +1462,47 @@ public abstract class Renderer {
 	 * @return The amount of characters that had to be cut off
 	 */
 	public int drawTextLimit(int x, int y, int width, String text, int color, Font f) {
-		int i = 0;
-		while (getTextWidth(text, f) > width) {
-			text = text.substring(0, text.length() - 1);
-			i++;
+		int n = fitText(text, width, f);
+		drawText(x, y, n < text.length() ? text.substring(0, n) : text, color, f);
+		return text.length() - n;
+	}
+
+	/**
+	 * Finds how many characters of a text fit into a width. Uses a binary search, so only a few prefixes get measured
+	 * 
+	 * @param text
+	 *            The text
+	 * @param width
+	 *            The available width
+	 * @param f
+	 *            The Font to use
+	 * @return The length of the longest prefix of the text that isn't wider than width
+	 */
+	public int fitText(String text, int width, Font f) {
+		if (getTextWidth(text, f) <= width) return text.length();
+		int lo = 0, hi = text.length() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (getTextWidth(text.substring(0, mid), f) <= width) lo = mid;
+			else hi = mid - 1;
 		}
-		drawText(x, y, text, color, f);
-		return i;
+		return lo;
+	}
+
+	/**
+	 * Measures every prefix of a text. Element i of the result is the width of the first i characters. Renderers that cache their text metrics return the cached array, so it must not be modified
+	 * 
+	 * @param text
+	 *            The text
+	 * @param f
+	 *            The Font to use
+	 * @return The widths of the prefixes, one longer than the text
+	 */
+	public int[] getTextPrefixWidths(String text, Font f) {
+		int[] w = new int[text.length() + 1];
+		for (int i = 1; i <= text.length(); i++)
+			w[i] = getTextWidth(text.substring(0, i), f);
+		return w;
 	}
 
 	/**
@@ -467,31 +1524,162 @@ public abstract class Renderer {
 	}
 
 	/**
+	 * Draws a rectangle with round corners. The radius of the corners is half of the smaller side
 	 * 
 	 * @param x
 	 *            x position
 	 * @param y
 	 *            y position
 	 * @param width
+	 *            the width of the rect
 	 * @param height
+	 *            the height of the rect
 	 * @param color
 	 *            the color of the rect
 	 */
 	public void drawRoundedRect(int x, int y, int width, int height, int color) {
-		double m = Math.min(width, height) / 2; // radius
-		for (int yy = y; yy < y + height; yy++) {
-			for (int xx = x; xx < x + width; xx++) {
-				if (xx < x + m && yy < y + m) {
-					if (Math.sqrt((xx - x - m) * (xx - x - m) + (yy - y - m) * (yy - y - m)) <= m) drawPixel(xx, yy, color);
-				} else if (xx < x + m && yy > y + height - m) {
-					if (Math.sqrt((xx - x - m) * (xx - x - m) + (yy - y - m) * (yy - y - m)) <= m) drawPixel(xx, yy, color);
-				} else if (xx > x + width - m && yy > y + height - m) {
-					if (Math.sqrt((xx - x - width + m) * (xx - x - width + m) + (yy - y - m) * (yy - y - m)) <= m) drawPixel(xx, yy, color);
-				} else if (xx > x + width - m && yy < y + m) {
-					if (Math.sqrt((xx - x - width + m) * (xx - x - width + m) + (yy - y - m) * (yy - y - m)) <= m) drawPixel(xx, yy, color);
-				} else drawPixel(xx, yy, color);
+		fillRoundedRect(x, y, width, height, Math.min(width, height) / 2, color);
+	}
+
+	/**
+	 * Fills a rectangle with round corners, row by row
+	 * 
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 * @param width
+	 *            The width of the rectangle
+	 * @param height
+	 *            The height of the rectangle
+	 * @param radius
+	 *            The radius of the corners, gets limited to half of the smaller side
+	 * @param color
+	 *            The color of the rectangle
+	 */
+	public void fillRoundedRect(int x, int y, int width, int height, int radius, int color) {
+		if (width <= 0 || height <= 0) return;
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+		int r = Math.max(0, Math.min(radius, Math.min(width, height) / 2));
+		int[] w = ellipseWidths(r, r);
+		for (int i = 0; i < r; i++) {
+			// The corner circles are centered r pixels inside the rectangle
+			int left = x + r - w[r - i], len = width - 2 * (r - w[r - i]);
+			fillSpan(left, y + i, len, color);
+			fillSpan(left, y + height - 1 - i, len, color);
+		}
+		for (int i = r; i < height - r; i++)
+			fillSpan(x, y + i, width, color);
+	}
+
+	/**
+	 * Draws the outline of a circle
+	 * 
+	 * @param x
+	 *            The x coordinate of the center
+	 * @param y
+	 *            The y coordinate of the center
+	 * @param radius
+	 *            The radius of the circle
+	 * @param color
+	 *            The color of the circle
+	 */
+	public void drawCircle(int x, int y, int radius, int color) {
+		drawEllipse(x, y, radius, radius, color);
+	}
+
+	/**
+	 * Fills a circle
+	 * 
+	 * @param x
+	 *            The x coordinate of the center
+	 * @param y
+	 *            The y coordinate of the center
+	 * @param radius
+	 *            The radius of the circle
+	 * @param color
+	 *            The color of the circle
+	 */
+	public void fillCircle(int x, int y, int radius, int color) {
+		fillEllipse(x, y, radius, radius, color);
+	}
+
+	/**
+	 * Draws the outline of an ellipse. The outline consists of the pixels of the filled ellipse that have a neighbour outside of it, so it has no gaps and no pixel is drawn twice
+	 * 
+	 * @param x
+	 *            The x coordinate of the center
+	 * @param y
+	 *            The y coordinate of the center
+	 * @param rx
+	 *            The horizontal radius
+	 * @param ry
+	 *            The vertical radius
+	 * @param color
+	 *            The color of the ellipse
+	 */
+	public void drawEllipse(int x, int y, int rx, int ry, int color) {
+		if (rx < 0 || ry < 0) return;
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+		int[] w = ellipseWidths(rx, ry);
+		for (int dy = 0; dy <= ry; dy++) {
+			// Pixels further out than the row above or below are on the edge, the outermost one always is
+			int inner = Math.min(dy < ry ? w[dy + 1] + 1 : 0, w[dy]);
+			for (int row = y - dy; row <= y + dy; row += dy == 0 ? 1 : 2 * dy) {
+				if (inner <= 0) fillSpan(x - w[dy], row, 2 * w[dy] + 1, color);
+				else {
+					fillSpan(x - w[dy], row, w[dy] - inner + 1, color);
+					fillSpan(x + inner, row, w[dy] - inner + 1, color);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Fills an ellipse, one span per row
+	 * 
+	 * @param x
+	 *            The x coordinate of the center
+	 * @param y
+	 *            The y coordinate of the center
+	 * @param rx
+	 *            The horizontal radius
+	 * @param ry
+	 *            The vertical radius
+	 * @param color
+	 *            The color of the ellipse
+	 */
+	public void fillEllipse(int x, int y, int rx, int ry, int color) {
+		if (rx < 0 || ry < 0) return;
+		if (!supportsAlpha()) color |= ALPHA_MASK;
+		int[] w = ellipseWidths(rx, ry);
+		fillSpan(x - w[0], y, 2 * w[0] + 1, color);
+		for (int dy = 1; dy <= ry; dy++) {
+			fillSpan(x - w[dy], y - dy, 2 * w[dy] + 1, color);
+			fillSpan(x - w[dy], y + dy, 2 * w[dy] + 1, color);
+		}
+	}
+
+	/**
+	 * Computes how far an ellipse reaches to each side in every row. Row dy contains the pixels whose offset x from the center satisfies x^2 / (rx + 0.5)^2 + dy^2 / (ry + 0.5)^2 <= 1, which for circles are the same pixels the midpoint algorithm fills. Only integers are used: the width can only shrink from one row to the next, so it's decreased until the row fits.
+	 * 
+	 * @param rx
+	 *            The horizontal radius
+	 * @param ry
+	 *            The vertical radius
+	 * @return The half widths of the rows 0 to ry below the center
+	 */
+	private static int[] ellipseWidths(int rx, int ry) {
+		int[] w = new int[ry + 1];
+		long a = 2L * rx + 1, b = 2L * ry + 1;
+		long a2 = a * a, b2 = b * b, limit = a2 * b2;
+		int x = rx;
+		for (int dy = 0; dy <= ry; dy++) {
+			while (x > 0 && 4L * x * x * b2 + 4L * dy * dy * a2 > limit)
+				x--;
+			w[dy] = x;
+		}
+		return w;
+	}
+
 }
@@ -0,0 +1,109 @@
+package ch.aiko.pix.graphics.renderer;
+
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * Reads colors from images at fractional positions, for drawing them scaled or transformed. Positions are 16.16 fixed point in source pixels, pixel k covers the range from k to k + 1, so its center is at k + 0.5.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public final class Sampling {
+
+	/** Takes the pixel the position lies in. Sharp, the default */
+	public static final int NEAREST = 0x0;
+	/** Interpolates between the four pixels closest to the position. Smooth */
+	public static final int BILINEAR = 0x1;
+
+	private Sampling() {}
+
+	/**
+	 * Samples a line of positions into an array. The positions start at (u|v) and move by (du|dv) per pixel. Positions outside of the image take the color of the closest edge.
+	 *
+	 * @param src
+	 *            The image to sample
+	 * @param out
+	 *            Where the colors go
+	 * @param off
+	 *            The index of the first color in out
+	 * @param len
+	 *            The amount of colors to sample
+	 * @param u
+	 *            The x coordinate of the first position (16.16)
+	 * @param v
+	 *            The y coordinate of the first position (16.16)
+	 * @param du
+	 *            How much u changes per pixel (16.16)
+	 * @param dv
+	 *            How much v changes per pixel (16.16)
+	 * @param filter
+	 *            {@link #NEAREST} or {@link #BILINEAR}
+	 */
+	public static void sampleSpan(PixImage src, int[] out, int off, int len, long u, long v, long du, long dv, int filter) {
+		int[] p = src.getPixels();
+		int base = src.getOffset(), scan = src.getScan(), mask = src.getAlphaMask();
+		int w = src.getWidth() - 1, h = src.getHeight() - 1;
+		if (filter == BILINEAR) {
+			u -= 0x8000; // Relative to the pixel centers
+			v -= 0x8000;
+			for (int i = off, end = off + len; i < end; i++, u += du, v += dv) {
+				int x0 = (int) (u >> 16), y0 = (int) (v >> 16);
+				int fx = (int) (u >> 8) & 0xFF, fy = (int) (v >> 8) & 0xFF;
+				int x1 = clamp(x0 + 1, w), y1 = clamp(y0 + 1, h);
+				x0 = clamp(x0, w);
+				y0 = clamp(y0, h);
+				int r0 = base + y0 * scan, r1 = base + y1 * scan;
+				out[i] = bilinear(p[r0 + x0] | mask, p[r0 + x1] | mask, p[r1 + x0] | mask, p[r1 + x1] | mask, fx, fy);
+			}
+		} else if (dv == 0 && v >= 0 && (v >> 16) <= h) {
+			// Scaling: the row stays the same, only x moves
+			int row = base + (int) (v >> 16) * scan;
+			for (int i = off, end = off + len; i < end; i++, u += du)
+				out[i] = p[row + clamp((int) (u >> 16), w)] | mask;
+		} else {
+			for (int i = off, end = off + len; i < end; i++, u += du, v += dv)
+				out[i] = p[base + clamp((int) (u >> 16), w) + clamp((int) (v >> 16), h) * scan] | mask;
+		}
+	}
+
+	/**
+	 * Interpolates between four colors. The color channels are weighted by their alpha, so fully transparent pixels don't bleed their color into the others
+	 *
+	 * @param c00
+	 *            The upper left color
+	 * @param c10
+	 *            The upper right color
+	 * @param c01
+	 *            The lower left color
+	 * @param c11
+	 *            The lower right color
+	 * @param fx
+	 *            How far right the position is, 0-255
+	 * @param fy
+	 *            How far down the position is, 0-255
+	 * @return The interpolated color
+	 */
+	public static int bilinear(int c00, int c10, int c01, int c11, int fx, int fy) {
+		int w00 = (256 - fx) * (256 - fy), w10 = fx * (256 - fy), w01 = (256 - fx) * fy, w11 = fx * fy; // Sum is 65536
+		if ((c00 & c10 & c01 & c11) >>> 24 == 0xFF) {
+			int r = (c00 >> 16 & 0xFF) * w00 + (c10 >> 16 & 0xFF) * w10 + (c01 >> 16 & 0xFF) * w01 + (c11 >> 16 & 0xFF) * w11;
+			int g = (c00 >> 8 & 0xFF) * w00 + (c10 >> 8 & 0xFF) * w10 + (c01 >> 8 & 0xFF) * w01 + (c11 >> 8 & 0xFF) * w11;
+			int b = (c00 & 0xFF) * w00 + (c10 & 0xFF) * w10 + (c01 & 0xFF) * w01 + (c11 & 0xFF) * w11;
+			return 0xFF000000 | (r + 0x8000) >> 16 << 16 | (g + 0x8000) >> 16 << 8 | (b + 0x8000) >> 16;
+		}
+		long a00 = (long) (c00 >>> 24) * w00, a10 = (long) (c10 >>> 24) * w10, a01 = (long) (c01 >>> 24) * w01, a11 = (long) (c11 >>> 24) * w11;
+		long sa = a00 + a10 + a01 + a11;
+		int a = (int) ((sa + 0x8000) >> 16);
+		if (a == 0) return 0;
+		long half = sa >> 1;
+		int r = (int) (((c00 >> 16 & 0xFF) * a00 + (c10 >> 16 & 0xFF) * a10 + (c01 >> 16 & 0xFF) * a01 + (c11 >> 16 & 0xFF) * a11 + half) / sa);
+		int g = (int) (((c00 >> 8 & 0xFF) * a00 + (c10 >> 8 & 0xFF) * a10 + (c01 >> 8 & 0xFF) * a01 + (c11 >> 8 & 0xFF) * a11 + half) / sa);
+		int b = (int) (((c00 & 0xFF) * a00 + (c10 & 0xFF) * a10 + (c01 & 0xFF) * a01 + (c11 & 0xFF) * a11 + half) / sa);
+		return a << 24 | r << 16 | g << 8 | b;
+	}
+
+	private static int clamp(int v, int max) {
+		return v < 0 ? 0 : v > max ? max : v;
+	}
+
+}
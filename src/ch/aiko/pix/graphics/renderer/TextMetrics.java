@@ -0,0 +1,130 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Font;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the widths of every prefix of recently measured strings, per font. Measuring a string that has been measured before and finding how much of it fits into a width become a lookup and a binary search.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class TextMetrics {
+
+	/** How many strings are remembered per font */
+	public static final int CACHE_SIZE = 512;
+
+	/** One instance per font */
+	private static final ConcurrentHashMap<Font, TextMetrics> metrics = new ConcurrentHashMap<Font, TextMetrics>();
+
+	private final GlyphCache glyphs;
+
+	/** The prefix widths of the most recently used strings */
+	private final LinkedHashMap<String, int[]> widths = new LinkedHashMap<String, int[]>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Gets the text metrics of a font, creates them if needed
+	 *
+	 * @param f
+	 *            The font
+	 * @return The metrics for the font
+	 */
+	public static TextMetrics get(Font f) {
+		TextMetrics m = metrics.get(f);
+		if (m == null) {
+			m = new TextMetrics(GlyphCache.get(f));
+			TextMetrics old = metrics.putIfAbsent(f, m);
+			if (old != null) m = old;
+		}
+		return m;
+	}
+
+	private TextMetrics(GlyphCache glyphs) {
+		this.glyphs = glyphs;
+	}
+
+	/**
+	 * Gets the widths of all prefixes of a string. Element i is the width of the first i chars, so the array is one longer than the string. The array is shared, don't modify it.
+	 *
+	 * @param s
+	 *            The string
+	 * @return The widths of the prefixes in pixels
+	 */
+	public int[] getPrefixWidths(String s) {
+		synchronized (widths) {
+			int[] w = widths.get(s);
+			if (w != null) return w;
+		}
+
+		int[] w = new int[s.length() + 1];
+		float pen = 0;
+		int previous = -1;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			pen += glyphs.getKerning(previous, c) + glyphs.getGlyph(c).advance;
+			w[i + 1] = (int) pen;
+			previous = c;
+		}
+
+		synchronized (widths) {
+			widths.put(s, w);
+		}
+		return w;
+	}
+
+	/**
+	 * Measures a string
+	 *
+	 * @param s
+	 *            The string
+	 * @return The width in pixels
+	 */
+	public int getWidth(String s) {
+		int[] w = getPrefixWidths(s);
+		return w[w.length - 1];
+	}
+
+	/**
+	 * Finds how many chars of a string fit into a width
+	 *
+	 * @param s
+	 *            The string
+	 * @param width
+	 *            The available width in pixels
+	 * @return The length of the longest prefix not wider than width
+	 */
+	public int fit(String s, int width) {
+		return fit(getPrefixWidths(s), width);
+	}
+
+	/**
+	 * Finds how many chars fit into a width with a binary search over prefix widths
+	 *
+	 * @param prefixWidths
+	 *            The widths of the prefixes as returned by {@link #getPrefixWidths(String)}
+	 * @param width
+	 *            The available width in pixels
+	 * @return The length of the longest prefix not wider than width
+	 */
+	public static int fit(int[] prefixWidths, int width) {
+		int lo = 0, hi = prefixWidths.length - 1;
+		if (prefixWidths[hi] <= width) return hi;
+		if (prefixWidths[0] > width) return 0;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (prefixWidths[mid] <= width) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo;
+	}
+
+}
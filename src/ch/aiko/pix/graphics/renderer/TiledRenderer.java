@@ -0,0 +1,572 @@
+package ch.aiko.pix.graphics.renderer;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ch.aiko.pix.graphics.renderer.GlyphCache.Glyph;
+import ch.aiko.pix.image.PixImage;
+
+/**
+ * Records the draw calls of a frame instead of executing them right away. When the frame is finished, every call gets sorted into the screen tiles it touches and the tiles are drawn in parallel, each one by its own {@link PixRenderer} clipped to the tile. The result is the same as if a single {@link PixRenderer} had drawn everything.
+ *
+ * Images, strings and fonts passed to the draw calls must not change until the frame is finished.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class TiledRenderer extends Renderer {
+
+	/** The default width and height of a tile */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	private static final int PIXEL = 0x0;
+	private static final int FILL_RECT = 0x1;
+	private static final int DRAW_RECT = 0x2;
+	private static final int HORIZONTAL_LINE = 0x3;
+	private static final int VERTICAL_LINE = 0x4;
+	private static final int SPAN = 0x5;
+	private static final int CLEAR = 0x6;
+	private static final int PIXELS = 0x7;
+	private static final int TEXT = 0x8;
+	private static final int IMAGE = 0x9;
+	private static final int SCALED_IMAGE = 0xA;
+	private static final int TRANSFORMED_IMAGE = 0xB;
+	private static final int GLYPH = 0xC;
+
+	/** How many ints a state takes: translation (2), clip (4), blend mode, filter */
+	private static final int STATE_SIZE = 8;
+
+	/** The renderer that owns the pixels */
+	private PixRenderer target;
+	/** One renderer sharing the pixels of the target per thread that draws tiles. Kept between frames, every call sets the clip, translation, blend mode and filter it was made with */
+	private final ThreadLocal<PixRenderer> views = ThreadLocal.withInitial(() -> new PixRenderer(target));
+	/** The pool drawing the tiles */
+	private ForkJoinPool pool;
+	private int tileSize, tilesX, tilesY;
+
+	/** The recorded calls, each one is the opcode, the index of its state and its arguments */
+	private int[] commands = new int[4096];
+	private int commandsLength;
+	/** Where every call starts in commands */
+	private int[] starts = new int[512];
+	private int commandCount;
+	/** The images, strings and fonts used by the calls */
+	private Object[] objects = new Object[64];
+	private int objectCount;
+	/** The different states the calls were made in. Calls in a row mostly share the same one */
+	private int[] states = new int[STATE_SIZE * 16];
+	private int stateCount;
+
+	/** The calls touching each tile, in the order they were made */
+	private int[][] tiles;
+	private int[] tileLengths;
+
+	/**
+	 * Creates a tiled renderer using the common pool and the default tile size
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 */
+	public TiledRenderer(int w, int h) {
+		this(w, h, DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a tiled renderer
+	 *
+	 * @param w
+	 *            The width of the drawable field
+	 * @param h
+	 *            The height of the drawable field
+	 * @param tileSize
+	 *            The width and height of a tile
+	 * @param pool
+	 *            The pool to draw the tiles with
+	 */
+	public TiledRenderer(int w, int h, int tileSize, ForkJoinPool pool) {
+		super(w, h);
+		this.target = new PixRenderer(w, h);
+		this.pool = pool;
+		this.tileSize = tileSize;
+		tilesX = (w + tileSize - 1) / tileSize;
+		tilesY = (h + tileSize - 1) / tileSize;
+		tiles = new int[tilesX * tilesY][16];
+		tileLengths = new int[tilesX * tilesY];
+	}
+
+	@Override
+	public boolean supportsAlpha() {
+		return target.supportsAlpha();
+	}
+
+	@Override
+	public void drawPixel(int x, int y, int color) {
+		int p = begin(PIXEL, x, y, x + 1, y + 1, 3);
+		if (p < 0) return;
+		commands[p] = x;
+		commands[p + 1] = y;
+		commands[p + 2] = color;
+	}
+
+	@Override
+	public void fillRect(int x, int y, int w, int h, int color) {
+		record(FILL_RECT, x, y, x + w + 1, y + h + 1, x, y, w, h, color);
+	}
+
+	@Override
+	public void drawRect(int x, int y, int w, int h, int color) {
+		record(DRAW_RECT, Math.min(x, x + w), Math.min(y, y + h), Math.max(x, x + w) + 1, Math.max(y, y + h) + 1, x, y, w, h, color);
+	}
+
+	@Override
+	public void fastHorizontalLine(int x, int y, int w, int thickness, int color) {
+		record(HORIZONTAL_LINE, x, y - thickness / 2, x + w, y + thickness / 2 + 1, x, y, w, thickness, color);
+	}
+
+	@Override
+	public void fastVerticalLine(int x, int y, int h, int thickness, int color) {
+		record(VERTICAL_LINE, x - thickness / 2, y, x + thickness / 2 + 1, y + h, x, y, h, thickness, color);
+	}
+
+	@Override
+	protected void fillSpan(int x, int y, int w, int color) {
+		int p = begin(SPAN, x, y, x + w, y + 1, 4);
+		if (p < 0) return;
+		commands[p] = x;
+		commands[p + 1] = y;
+		commands[p + 2] = w;
+		commands[p + 3] = color;
+	}
+
+	@Override
+	public void clear(int color) {
+		if (clearOnlyDirty()) {
+			// Record one clear for every area drawn in the last frame, clipped to it
+			int x0 = clipX0, y0 = clipY0, x1 = clipX1, y1 = clipY1;
+			for (int i = 0; i < lastDirty.size(); i++) {
+				Rectangle r = lastDirty.get(i);
+				clipX0 = Math.max(r.x, x0);
+				clipY0 = Math.max(r.y, y0);
+				clipX1 = Math.min(r.x + r.width, x1);
+				clipY1 = Math.min(r.y + r.height, y1);
+				recordClear(color);
+			}
+			clipX0 = x0;
+			clipY0 = y0;
+			clipX1 = x1;
+			clipY1 = y1;
+		} else recordClear(color);
+	}
+
+	private void recordClear(int color) {
+		int p = begin(CLEAR, clipX0 - translateX, clipY0 - translateY, clipX1 - translateX, clipY1 - translateY, 1);
+		if (p < 0) return;
+		commands[p] = color;
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y) {
+		PixImage pi = PixImage.wrap(img);
+		recordPixels(pi.getPixels(), pi.getOffset(), pi.getScan(), pi.getWidth(), pi.getHeight(), x, y, pi.getAlphaMask());
+	}
+
+	@Override
+	public void drawImage(PixImage img, int x, int y) {
+		int p = begin(IMAGE, x, y, x + img.getWidth(), y + img.getHeight(), 3);
+		if (p < 0) return;
+		img.getRuns(); // Create the runs now instead of in every tile
+		commands[p] = addObject(img);
+		commands[p + 1] = x;
+		commands[p + 2] = y;
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, int x, int y, int x1, int y1, int w, int h) {
+		recordPixels(img.getRGB(x1, y1, w, h, null, 0, w), 0, w, w, h, x, y, 0);
+	}
+
+	@Override
+	public void drawImage(PixImage img, int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) return;
+		int p = begin(SCALED_IMAGE, x, y, x + w, y + h, 5);
+		if (p < 0) return;
+		img.getMipmap(w, h).getRuns(); // Create mipmaps and runs now instead of in every tile
+		commands[p] = addObject(img);
+		commands[p + 1] = x;
+		commands[p + 2] = y;
+		commands[p + 3] = w;
+		commands[p + 4] = h;
+	}
+
+	@Override
+	public void drawImage(PixImage img, AffineTransform t) {
+		Rectangle b = getTransformedBounds(img, t);
+		int p = begin(TRANSFORMED_IMAGE, b.x, b.y, b.x + b.width, b.y + b.height, 2);
+		if (p < 0) return;
+		img.getRuns();
+		commands[p] = addObject(img);
+		commands[p + 1] = addObject(new AffineTransform(t)); // The caller may change it before the frame is finished
+	}
+
+	@Override
+	public void drawText(int x, int y, String text, int color, Font f) {
+		if (text == null) return;
+		int s = f.getSize(); // Generous bounds, glyphs may reach out of their box
+		int p = begin(TEXT, x - s, y - s, x + getTextWidth(text, f) + 2 * s, y + 3 * s, 5);
+		if (p < 0) return;
+		commands[p] = x;
+		commands[p + 1] = y;
+		commands[p + 2] = addObject(text);
+		commands[p + 3] = color;
+		commands[p + 4] = addObject(f);
+	}
+
+	/**
+	 * Records a single glyph. Texts are recorded as a whole by {@link #drawText(int, int, String, int, Font)}, this is only used for glyphs drawn on their own
+	 */
+	@Override
+	protected void drawGlyph(Glyph g, int x, int y, int color) {
+		if (g.data == null) return;
+		int p = begin(GLYPH, x - translateX, y - translateY, x - translateX + g.width, y - translateY + g.height, 4);
+		if (p < 0) return;
+		commands[p] = addObject(g);
+		commands[p + 1] = x;
+		commands[p + 2] = y;
+		commands[p + 3] = color;
+	}
+
+	@Override
+	public int getTextWidth(String s, Font f) {
+		return target.getTextWidth(s, f);
+	}
+
+	@Override
+	public int fitText(String text, int width, Font f) {
+		return target.fitText(text, width, f);
+	}
+
+	@Override
+	public int[] getTextPrefixWidths(String text, Font f) {
+		return target.getTextPrefixWidths(text, f);
+	}
+
+	/**
+	 * Draws all the recorded calls and forwards the finished image to the graphics object
+	 */
+	@Override
+	public void finishUp(Graphics g, int w, int h) {
+		flush();
+		target.finishUp(g, w, h);
+	}
+
+	@Override
+	public void finishUpDirty(Graphics g, int w, int h) {
+		flush();
+		target.present(g, w, h, presentAll ? null : dirty);
+		frameDone();
+	}
+
+	@Override
+	public void finishFrame() {
+		flush();
+		frameDone();
+	}
+
+	/**
+	 * Turns pixel perfect scaling of the finished image on or off, see {@link PixRenderer#setIntegerScaling(boolean)}
+	 *
+	 * @param on
+	 *            True to enlarge by whole factors
+	 */
+	public void setIntegerScaling(boolean on) {
+		target.setIntegerScaling(on);
+		markAllDirty();
+	}
+
+	/**
+	 * Gets the scaler used to show the finished image
+	 *
+	 * @return The scaler or null if pixel perfect scaling is off
+	 */
+	public IntegerScaler getIntegerScaler() {
+		return target.getIntegerScaler();
+	}
+
+	/**
+	 * Draws all the calls recorded so far. Blocks until every tile is done
+	 */
+	public void flush() {
+		if (commandCount == 0) return;
+		pool.invoke(new TileTask(0, tiles.length));
+
+		commandsLength = 0;
+		commandCount = 0;
+		stateCount = 0;
+		Arrays.fill(objects, 0, objectCount, null); // Don't keep the images alive
+		objectCount = 0;
+		Arrays.fill(tileLengths, 0);
+	}
+
+	/**
+	 * Gets the pixels of the image the tiles are drawn into. Draws the recorded calls first
+	 */
+	@Override
+	public int[] getFrameBuffer() {
+		flush();
+		return target.getFrameBuffer();
+	}
+
+	@Override
+	public int[] getOutputBuffer() {
+		return target.getOutputBuffer();
+	}
+
+	@Override
+	public void setOutputEnabled(boolean enabled) {
+		target.setOutputEnabled(enabled);
+	}
+
+	/**
+	 * Copies the pixels of the finished image. Draws the recorded calls first
+	 */
+	@Override
+	public void copyPixels(int[] dst) {
+		flush();
+		target.copyPixels(dst);
+	}
+
+	/**
+	 * Reads a pixel of the finished image. Draws the recorded calls first
+	 *
+	 * @param x
+	 *            The x coordinate
+	 * @param y
+	 *            The y coordinate
+	 * @return The color of the pixel or -1 if it's outside of the screen
+	 */
+	public int readPixel(int x, int y) {
+		flush();
+		return target.readPixel(x + translateX, y + translateY);
+	}
+
+	/**
+	 * Gets the image the tiles are drawn into. Draws the recorded calls first
+	 *
+	 * @return The image
+	 */
+	public BufferedImage getImage() {
+		flush();
+		return target.getImage();
+	}
+
+	/**
+	 * Records a call with five int arguments
+	 */
+	private void record(int op, int x0, int y0, int x1, int y1, int a, int b, int c, int d, int e) {
+		int p = begin(op, x0, y0, x1, y1, 5);
+		if (p < 0) return;
+		commands[p] = a;
+		commands[p + 1] = b;
+		commands[p + 2] = c;
+		commands[p + 3] = d;
+		commands[p + 4] = e;
+	}
+
+	/**
+	 * Records a block of pixels to be blended onto the screen
+	 */
+	private void recordPixels(int[] src, int off, int scan, int w, int h, int x, int y, int alphaMask) {
+		int p = begin(PIXELS, x, y, x + w, y + h, 8);
+		if (p < 0) return;
+		commands[p] = addObject(src);
+		commands[p + 1] = off;
+		commands[p + 2] = scan;
+		commands[p + 3] = w;
+		commands[p + 4] = h;
+		commands[p + 5] = x;
+		commands[p + 6] = y;
+		commands[p + 7] = alphaMask;
+	}
+
+	/**
+	 * Starts recording a call. The bounds of the call are translated and clipped; if nothing is left the call is dropped, otherwise it gets added to every tile it touches.
+	 *
+	 * @param op
+	 *            The opcode
+	 * @param x0
+	 *            The left edge of what the call might touch (inclusive)
+	 * @param y0
+	 *            The top edge of what the call might touch (inclusive)
+	 * @param x1
+	 *            The right edge of what the call might touch (exclusive)
+	 * @param y1
+	 *            The bottom edge of what the call might touch (exclusive)
+	 * @param args
+	 *            The amount of int arguments the call has
+	 * @return The index to write the arguments to or -1 if the call has been dropped
+	 */
+	private int begin(int op, int x0, int y0, int x1, int y1, int args) {
+		x0 = Math.max(x0 + translateX, clipX0);
+		y0 = Math.max(y0 + translateY, clipY0);
+		x1 = Math.min(x1 + translateX, clipX1);
+		y1 = Math.min(y1 + translateY, clipY1);
+		if (x0 >= x1 || y0 >= y1) return -1;
+		if (op == CLEAR) markCleared(x0, y0, x1, y1); // Cleared areas don't have to be cleared again in the next frame
+		else markDirty(x0, y0, x1, y1);
+
+		if (commandsLength + args + 2 > commands.length) commands = Arrays.copyOf(commands, Math.max(commands.length * 2, commandsLength + args + 2));
+		if (commandCount == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+		int index = commandCount++;
+		starts[index] = commandsLength;
+		commands[commandsLength++] = op;
+		commands[commandsLength++] = currentState();
+
+		for (int ty = y0 / tileSize; ty <= (y1 - 1) / tileSize; ty++) {
+			for (int tx = x0 / tileSize; tx <= (x1 - 1) / tileSize; tx++) {
+				int t = tx + ty * tilesX;
+				if (tileLengths[t] == tiles[t].length) tiles[t] = Arrays.copyOf(tiles[t], tiles[t].length * 2);
+				tiles[t][tileLengths[t]++] = index;
+			}
+		}
+
+		int p = commandsLength;
+		commandsLength += args;
+		return p;
+	}
+
+	/**
+	 * Gets the index of the current state, adds it if it differs from the last one
+	 */
+	private int currentState() {
+		int s = (stateCount - 1) * STATE_SIZE;
+		if (stateCount > 0 && states[s] == translateX && states[s + 1] == translateY && states[s + 2] == clipX0 && states[s + 3] == clipY0 && states[s + 4] == clipX1 && states[s + 5] == clipY1 && states[s + 6] == blendMode && states[s + 7] == filter) return stateCount - 1;
+
+		if ((stateCount + 1) * STATE_SIZE > states.length) states = Arrays.copyOf(states, states.length * 2);
+		s = stateCount * STATE_SIZE;
+		states[s] = translateX;
+		states[s + 1] = translateY;
+		states[s + 2] = clipX0;
+		states[s + 3] = clipY0;
+		states[s + 4] = clipX1;
+		states[s + 5] = clipY1;
+		states[s + 6] = blendMode;
+		states[s + 7] = filter;
+		return stateCount++;
+	}
+
+	private int addObject(Object o) {
+		if (objectCount == objects.length) objects = Arrays.copyOf(objects, objects.length * 2);
+		objects[objectCount] = o;
+		return objectCount++;
+	}
+
+	/**
+	 * Replays the calls touching one tile
+	 *
+	 * @param view
+	 *            A renderer sharing the pixels of the target
+	 * @param tile
+	 *            The index of the tile
+	 */
+	private void drawTile(PixRenderer view, int tile) {
+		int tx0 = (tile % tilesX) * tileSize;
+		int ty0 = (tile / tilesX) * tileSize;
+		int tx1 = Math.min(tx0 + tileSize, width);
+		int ty1 = Math.min(ty0 + tileSize, height);
+		int[] list = tiles[tile];
+		int[] c = commands;
+
+		for (int i = 0, n = tileLengths[tile]; i < n; i++) {
+			int p = starts[list[i]];
+			int op = c[p];
+			int s = c[p + 1] * STATE_SIZE;
+			p += 2;
+
+			view.translateX = states[s];
+			view.translateY = states[s + 1];
+			view.clipX0 = Math.max(states[s + 2], tx0);
+			view.clipY0 = Math.max(states[s + 3], ty0);
+			view.clipX1 = Math.min(states[s + 4], tx1);
+			view.clipY1 = Math.min(states[s + 5], ty1);
+			view.blendMode = states[s + 6];
+			view.filter = states[s + 7];
+
+			switch (op) {
+				case PIXEL:
+					view.drawPixel(c[p], c[p + 1], c[p + 2]);
+					break;
+				case FILL_RECT:
+					view.fillRect(c[p], c[p + 1], c[p + 2], c[p + 3], c[p + 4]);
+					break;
+				case DRAW_RECT:
+					view.drawRect(c[p], c[p + 1], c[p + 2], c[p + 3], c[p + 4]);
+					break;
+				case HORIZONTAL_LINE:
+					view.fastHorizontalLine(c[p], c[p + 1], c[p + 2], c[p + 3], c[p + 4]);
+					break;
+				case VERTICAL_LINE:
+					view.fastVerticalLine(c[p], c[p + 1], c[p + 2], c[p + 3], c[p + 4]);
+					break;
+				case SPAN:
+					view.fillSpan(c[p], c[p + 1], c[p + 2], c[p + 3]);
+					break;
+				case CLEAR:
+					view.clear(c[p]);
+					break;
+				case PIXELS:
+					view.blit((int[]) objects[c[p]], c[p + 1], c[p + 2], c[p + 3], c[p + 4], c[p + 5], c[p + 6], c[p + 7]);
+					break;
+				case TEXT:
+					view.drawText(c[p], c[p + 1], (String) objects[c[p + 2]], c[p + 3], (Font) objects[c[p + 4]]);
+					break;
+				case GLYPH:
+					view.drawGlyph((Glyph) objects[c[p]], c[p + 1], c[p + 2], c[p + 3]);
+					break;
+				case IMAGE:
+					view.drawImage((PixImage) objects[c[p]], c[p + 1], c[p + 2]);
+					break;
+				case TRANSFORMED_IMAGE:
+					view.drawImage((PixImage) objects[c[p]], (AffineTransform) objects[c[p + 1]]);
+					break;
+				case SCALED_IMAGE:
+					view.drawImage((PixImage) objects[c[p]], c[p + 1], c[p + 2], c[p + 3], c[p + 4]);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Draws a range of tiles, splits itself until there is only one tile left
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int start, end;
+
+		TileTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new TileTask(start, mid), new TileTask(mid, end));
+				return;
+			}
+			if (tileLengths[start] == 0) return;
+			drawTile(views.get(), start);
+		}
+	}
+
+}
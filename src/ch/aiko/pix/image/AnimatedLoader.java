@@ -39,6 +39,71 @@ public class AnimatedLoader {
 		return animSprites;
 	}
 
+	/**
+	 * Same as {@link #loadAnimations(String, int, int, int)}, but every frame is converted to a PixImage once and the sprites are views into it
+	 * 
+	 * @param path The path to the png / gif
+	 * @param type The type of the file, one of the TYPE constants
+	 * @param w The width of a sprite
+	 * @param h The height of a sprite
+	 * @return The sprites of every frame
+	 */
+	public static PixImage[][] loadPixAnimations(String path, int type, int w, int h) {
+		BufferedImage[] frames = null;
+		switch (type) {
+			case TYPE_PNG:
+			case TYPE_PNG_EXTENDED:
+				frames = new BufferedImage[] { ImageLoader.loadPNG(path) };
+				break;
+			case TYPE_GIF:
+				frames = GIFLoader.loadGif(path);
+				break;
+			default:
+				System.err.println("Unknown format");
+				return null;
+		}
+
+		PixImage[][] animSprites;
+		if (type == TYPE_PNG_EXTENDED) {
+			// Every sprite of the sheet is a frame of its own
+			PixImage[] sprites = new SpriteSheet(frames[0]).getPixSprites(w, h);
+			animSprites = new PixImage[sprites.length][];
+			for (int i = 0; i < sprites.length; i++)
+				animSprites[i] = new PixImage[] { sprites[i] };
+		} else {
+			animSprites = new PixImage[frames.length][];
+			for (int i = 0; i < animSprites.length; i++)
+				animSprites[i] = new SpriteSheet(frames[i]).getPixSprites(w, h);
+		}
+		return animSprites;
+	}
+
+	/**
+	 * Same as {@link #loadPixAnimations(String, int, int, int)}, but all sprites of all frames are packed into one atlas
+	 * 
+	 * @param path The path to the png / gif
+	 * @param type The type of the file, one of the TYPE constants
+	 * @param w The width of a sprite
+	 * @param h The height of a sprite
+	 * @return The regions of the sprites of every frame
+	 */
+	public static SpriteAtlas.Region[][] loadAtlasAnimations(String path, int type, int w, int h) {
+		PixImage[][] frames = loadPixAnimations(path, type, w, h);
+		if (frames == null) return null;
+		SpriteAtlas.Builder b = new SpriteAtlas.Builder();
+		for (PixImage[] frame : frames)
+			b.addAll(frame);
+		SpriteAtlas atlas = b.build();
+
+		SpriteAtlas.Region[][] regions = new SpriteAtlas.Region[frames.length][];
+		for (int i = 0, r = 0; i < frames.length; i++) {
+			regions[i] = new SpriteAtlas.Region[frames[i].length];
+			for (int j = 0; j < regions[i].length; j++)
+				regions[i][j] = atlas.getRegion(r++);
+		}
+		return regions;
+	}
+
 	/**
 	 * Loads a single animation from a path. Requires correct file extensions. Only png and gif are supported
 	 * 
@@ -23,4 +23,15 @@ public class ImageLoader {
 		return img;
 	}
 
+	/**
+	 * Loads an image and converts it to a PixImage, which the renderers can draw without converting it again
+	 * 
+	 * @param path The path to the image
+	 * @return The image or null if it couldn't be loaded
+	 */
+	public static PixImage loadPixImage(String path) {
+		BufferedImage img = loadPNG(path);
+		return img == null ? null : PixImage.fromImage(img);
+	}
+
 }
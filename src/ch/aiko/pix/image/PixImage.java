@@ -0,0 +1,368 @@
+package ch.aiko.pix.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * An image the renderers can draw directly: ARGB ints, one per pixel, plus a table of the opaque and translucent runs in every row. With the runs, opaque parts can be copied row by row and transparent parts are skipped without looking at the alpha of every pixel.
+ *
+ * A PixImage can be a view into the pixels of another one (see {@link #getSubImage(int, int, int, int)}), so sprites cut from a sheet don't copy anything.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class PixImage {
+
+	/** Set in the length of a run if the run is translucent. Opaque runs don't have it */
+	public static final int TRANSLUCENT_RUN = 0x80000000;
+
+	private final int[] pixels;
+	private final int offset, scan, width, height;
+	/** Gets or'ed onto every pixel. Only set for views of images without an alpha channel */
+	private final int alphaMask;
+
+	/**
+	 * The start of every row in the table (height + 1 entries), followed by two ints per run: the x coordinate and the length, with {@link #TRANSLUCENT_RUN} set for translucent runs. Created when first needed
+	 */
+	private volatile int[] runs;
+
+	/** If this image should have mipmaps */
+	private boolean mipmapped;
+	/** This image, followed by versions of half the size of the one before. Created when first needed */
+	private volatile PixImage[] mipmaps;
+
+	/**
+	 * Creates a new, fully transparent image
+	 *
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 */
+	public PixImage(int width, int height) {
+		this(new int[width * height], 0, width, width, height, 0);
+	}
+
+	/**
+	 * Creates an image using the given pixels. The array isn't copied
+	 *
+	 * @param pixels
+	 *            The ARGB pixels, row by row
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 */
+	public PixImage(int[] pixels, int width, int height) {
+		this(pixels, 0, width, width, height, 0);
+	}
+
+	/**
+	 * Creates an image using a part of an array. The array isn't copied
+	 *
+	 * @param pixels
+	 *            The ARGB pixels
+	 * @param offset
+	 *            The index of the upper left pixel
+	 * @param scan
+	 *            The distance between two rows in the array
+	 * @param width
+	 *            The width of the image
+	 * @param height
+	 *            The height of the image
+	 */
+	public PixImage(int[] pixels, int offset, int scan, int width, int height) {
+		this(pixels, offset, scan, width, height, 0);
+	}
+
+	private PixImage(int[] pixels, int offset, int scan, int width, int height, int alphaMask) {
+		this.pixels = pixels;
+		this.offset = offset;
+		this.scan = scan;
+		this.width = width;
+		this.height = height;
+		this.alphaMask = alphaMask;
+	}
+
+	/**
+	 * Copies a BufferedImage of any type into a new PixImage
+	 *
+	 * @param img
+	 *            The image to copy
+	 * @return The new image
+	 */
+	public static PixImage fromImage(BufferedImage img) {
+		int w = img.getWidth(), h = img.getHeight();
+		return new PixImage(img.getRGB(0, 0, w, h, null, 0, w), w, h);
+	}
+
+	/**
+	 * Creates a PixImage using the pixels of a BufferedImage without copying them, if they are stored as ARGB or RGB ints (subimages included). Other images are copied.
+	 *
+	 * Changes to a wrapped image are visible in the PixImage, but {@link #invalidate()} has to be called if the runs were used already.
+	 *
+	 * @param img
+	 *            The image to wrap
+	 * @return The PixImage
+	 */
+	public static PixImage wrap(BufferedImage img) {
+		Raster r = img.getRaster();
+		DataBuffer db = r.getDataBuffer();
+		ColorModel cm = img.getColorModel();
+		if (db instanceof DataBufferInt && r.getSampleModel() instanceof SinglePixelPackedSampleModel && cm instanceof DirectColorModel && !cm.isAlphaPremultiplied()) {
+			DirectColorModel dcm = (DirectColorModel) cm;
+			if (dcm.getRedMask() == 0xFF0000 && dcm.getGreenMask() == 0xFF00 && dcm.getBlueMask() == 0xFF && (dcm.getAlphaMask() == 0xFF000000 || dcm.getAlphaMask() == 0)) {
+				int scan = ((SinglePixelPackedSampleModel) r.getSampleModel()).getScanlineStride();
+				int off = db.getOffset() - r.getSampleModelTranslateX() - r.getSampleModelTranslateY() * scan;
+				return new PixImage(((DataBufferInt) db).getData(), off, scan, img.getWidth(), img.getHeight(), cm.hasAlpha() ? 0 : 0xFF000000);
+			}
+		}
+		return fromImage(img);
+	}
+
+	/**
+	 * Creates a view into a part of this image. The pixels are shared
+	 *
+	 * @param x
+	 *            The x coordinate of the upper left corner
+	 * @param y
+	 *            The y coordinate of the upper left corner
+	 * @param w
+	 *            The width of the part
+	 * @param h
+	 *            The height of the part
+	 * @return The view
+	 */
+	public PixImage getSubImage(int x, int y, int w, int h) {
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) throw new IllegalArgumentException("Subimage out of bounds: " + x + ", " + y + ", " + w + ", " + h);
+		return new PixImage(pixels, offset + x + y * scan, scan, w, h, alphaMask);
+	}
+
+	/**
+	 * Copies the image into a new ARGB BufferedImage
+	 *
+	 * @return The BufferedImage
+	 */
+	public BufferedImage toBufferedImage() {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] dst = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				dst[x + y * width] = pixels[offset + x + y * scan] | alphaMask;
+		}
+		return img;
+	}
+
+	/**
+	 * Gets the color of a pixel
+	 *
+	 * @param x
+	 *            The x coordinate
+	 * @param y
+	 *            The y coordinate
+	 * @return The ARGB color
+	 */
+	public int getPixel(int x, int y) {
+		return pixels[offset + x + y * scan] | alphaMask;
+	}
+
+	/**
+	 * Sets the color of a pixel. Call {@link #invalidate()} when done changing pixels
+	 *
+	 * @param x
+	 *            The x coordinate
+	 * @param y
+	 *            The y coordinate
+	 * @param color
+	 *            The ARGB color
+	 */
+	public void setPixel(int x, int y, int color) {
+		pixels[offset + x + y * scan] = color;
+	}
+
+	/**
+	 * Has to be called after the pixels were changed, so the runs and mipmaps get computed again
+	 */
+	public void invalidate() {
+		runs = null;
+		mipmaps = null;
+	}
+
+	/**
+	 * Turns on mipmaps for this image: versions of half, a quarter... of the size, each pixel the average of four pixels of the bigger one. Drawing the image much smaller than it is reads from the closest one, which is faster and doesn't flicker
+	 */
+	public void buildMipmaps() {
+		mipmapped = true;
+		getMipmaps();
+	}
+
+	/**
+	 * Gets the smallest version of this image that is still at least as big as the given size. Without mipmaps it's always this image
+	 *
+	 * @param w
+	 *            The width the image gets drawn with
+	 * @param h
+	 *            The height the image gets drawn with
+	 * @return The image or one of its mipmaps
+	 */
+	public PixImage getMipmap(int w, int h) {
+		if (!mipmapped) return this;
+		PixImage[] m = getMipmaps();
+		int level = 0;
+		while (level + 1 < m.length && m[level + 1].width >= w && m[level + 1].height >= h)
+			level++;
+		return m[level];
+	}
+
+	/**
+	 * Gets the amount of mipmap levels, including the image itself
+	 *
+	 * @return The amount of levels, 1 if there are no mipmaps
+	 */
+	public int getMipmapLevels() {
+		return mipmapped ? getMipmaps().length : 1;
+	}
+
+	private PixImage[] getMipmaps() {
+		PixImage[] m = mipmaps;
+		if (m == null) mipmaps = m = computeMipmaps();
+		return m;
+	}
+
+	private PixImage[] computeMipmaps() {
+		PixImage[] m = new PixImage[1];
+		m[0] = this;
+		PixImage last = this;
+		while (last.width > 1 || last.height > 1) {
+			int w = Math.max(1, last.width / 2), h = Math.max(1, last.height / 2);
+			int[] dst = new int[w * h];
+			for (int y = 0; y < h; y++) {
+				int y0 = Math.min(y * 2, last.height - 1), y1 = Math.min(y * 2 + 1, last.height - 1);
+				for (int x = 0; x < w; x++) {
+					int x0 = Math.min(x * 2, last.width - 1), x1 = Math.min(x * 2 + 1, last.width - 1);
+					dst[x + y * w] = average(last.getPixel(x0, y0), last.getPixel(x1, y0), last.getPixel(x0, y1), last.getPixel(x1, y1));
+				}
+			}
+			last = new PixImage(dst, w, h);
+			m = Arrays.copyOf(m, m.length + 1);
+			m[m.length - 1] = last;
+		}
+		return m;
+	}
+
+	/**
+	 * Averages four colors, weighting the color channels by their alpha
+	 */
+	private static int average(int c0, int c1, int c2, int c3) {
+		int a0 = c0 >>> 24, a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24;
+		int sa = a0 + a1 + a2 + a3;
+		if (sa == 0) return 0;
+		int r = ((c0 >> 16 & 0xFF) * a0 + (c1 >> 16 & 0xFF) * a1 + (c2 >> 16 & 0xFF) * a2 + (c3 >> 16 & 0xFF) * a3 + sa / 2) / sa;
+		int g = ((c0 >> 8 & 0xFF) * a0 + (c1 >> 8 & 0xFF) * a1 + (c2 >> 8 & 0xFF) * a2 + (c3 >> 8 & 0xFF) * a3 + sa / 2) / sa;
+		int b = ((c0 & 0xFF) * a0 + (c1 & 0xFF) * a1 + (c2 & 0xFF) * a2 + (c3 & 0xFF) * a3 + sa / 2) / sa;
+		return (sa + 2) / 4 << 24 | r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * Gets the run table of this image. The first height + 1 entries are the indices where the runs of each row start (row y has its runs between entry y and y + 1). Every run consists of two ints: its x coordinate and its length, with {@link #TRANSLUCENT_RUN} set if the run contains translucent pixels. Fully transparent pixels aren't part of any run.
+	 *
+	 * @return The run table
+	 */
+	public int[] getRuns() {
+		int[] r = runs;
+		if (r == null) runs = r = computeRuns();
+		return r;
+	}
+
+	private int[] computeRuns() {
+		int[] r = new int[height + 1 + 16];
+		int n = height + 1;
+		for (int y = 0; y < height; y++) {
+			r[y] = n;
+			int row = offset + y * scan;
+			int x = 0;
+			while (x < width) {
+				int a = (pixels[row + x] | alphaMask) >>> 24;
+				int start = x;
+				boolean opaque = a == 0xFF;
+				if (a == 0) {
+					while (x < width && (pixels[row + x] | alphaMask) >>> 24 == 0)
+						x++;
+					continue;
+				} else if (opaque) {
+					while (x < width && (pixels[row + x] | alphaMask) >>> 24 == 0xFF)
+						x++;
+				} else {
+					while (x < width && (a = (pixels[row + x] | alphaMask) >>> 24) != 0 && a != 0xFF)
+						x++;
+				}
+				if (n + 2 > r.length) r = Arrays.copyOf(r, r.length * 2);
+				r[n++] = start;
+				r[n++] = (x - start) | (opaque ? 0 : TRANSLUCENT_RUN);
+			}
+		}
+		r[height] = n;
+		return r;
+	}
+
+	/**
+	 * Gets the array holding the pixels. Might be shared with other images
+	 *
+	 * @return The pixels
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Gets the index of the upper left pixel in {@link #getPixels()}
+	 *
+	 * @return The offset
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the distance between two rows in {@link #getPixels()}
+	 *
+	 * @return The scanline stride
+	 */
+	public int getScan() {
+		return scan;
+	}
+
+	/**
+	 * Gets the mask that has to be or'ed onto every pixel. Is ALPHA_MASK for wrapped images without an alpha channel, 0 otherwise
+	 *
+	 * @return The alpha mask
+	 */
+	public int getAlphaMask() {
+		return alphaMask;
+	}
+
+	/**
+	 * Gets the width of the image
+	 *
+	 * @return The width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the image
+	 *
+	 * @return The height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+}
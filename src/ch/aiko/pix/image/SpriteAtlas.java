@@ -0,0 +1,352 @@
+package ch.aiko.pix.image;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Many sprites packed into a few big pages. The transparent borders of every sprite get cut off and the rest is placed on the pages with a skyline packer, so the pixels of all sprites lie next to each other in memory instead of being spread over hundreds of images.
+ *
+ * Sprites are added with a {@link Builder}, the atlas hands out a {@link Region} for each of them. Regions can be drawn like images with {@link ch.aiko.pix.graphics.renderer.Renderer#drawImage(Region, int, int)}.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class SpriteAtlas {
+
+	/** The default width and maximum height of a page */
+	public static final int DEFAULT_PAGE_SIZE = 1024;
+
+	private final PixImage[] pages;
+	private final Region[] regions;
+
+	private SpriteAtlas(PixImage[] pages, Region[] regions) {
+		this.pages = pages;
+		this.regions = regions;
+	}
+
+	/**
+	 * Gets the region of a sprite
+	 *
+	 * @param index
+	 *            The index returned by the builder when the sprite was added
+	 * @return The region
+	 */
+	public Region getRegion(int index) {
+		return regions[index];
+	}
+
+	/**
+	 * Gets the regions of all sprites in the order they were added
+	 *
+	 * @return The regions
+	 */
+	public Region[] getRegions() {
+		return regions.clone();
+	}
+
+	/**
+	 * Gets the amount of sprites in the atlas
+	 *
+	 * @return The amount of regions
+	 */
+	public int getRegionCount() {
+		return regions.length;
+	}
+
+	/**
+	 * Gets a page of the atlas
+	 *
+	 * @param index
+	 *            The index of the page
+	 * @return The page
+	 */
+	public PixImage getPage(int index) {
+		return pages[index];
+	}
+
+	/**
+	 * Gets the amount of pages in the atlas
+	 *
+	 * @return The amount of pages
+	 */
+	public int getPageCount() {
+		return pages.length;
+	}
+
+	/**
+	 * Where a sprite is stored in the atlas. The image only contains the part of the sprite that isn't transparent, the offsets say where that part was in the original sprite.
+	 */
+	public static final class Region {
+
+		/** The trimmed sprite, a view into its page */
+		public final PixImage image;
+		/** The page containing the sprite, -1 if the sprite is fully transparent */
+		public final int page;
+		/** Where the trimmed sprite starts in the original one */
+		public final int offsetX, offsetY;
+		/** The size of the original sprite */
+		public final int width, height;
+
+		Region(PixImage image, int page, int offsetX, int offsetY, int width, int height) {
+			this.image = image;
+			this.page = page;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * Collects sprites and packs them into an atlas
+	 */
+	public static class Builder {
+
+		private final int pageSize;
+
+		private PixImage[] sprites = new PixImage[64];
+		/** The trimmed bounds of every sprite: x, y, w, h */
+		private int[] trims = new int[4 * 64];
+		private int count;
+
+		/**
+		 * Creates a builder using the default page size
+		 */
+		public Builder() {
+			this(DEFAULT_PAGE_SIZE);
+		}
+
+		/**
+		 * Creates a builder
+		 *
+		 * @param pageSize
+		 *            The width and maximum height of a page. Sprites that are bigger get a page of their own
+		 */
+		public Builder(int pageSize) {
+			this.pageSize = pageSize;
+		}
+
+		/**
+		 * Adds a sprite
+		 *
+		 * @param img
+		 *            The sprite
+		 * @return The index of its region in the atlas
+		 */
+		public int add(BufferedImage img) {
+			return add(PixImage.wrap(img));
+		}
+
+		/**
+		 * Adds a sprite
+		 *
+		 * @param img
+		 *            The sprite
+		 * @return The index of its region in the atlas
+		 */
+		public int add(PixImage img) {
+			if (count == sprites.length) {
+				sprites = Arrays.copyOf(sprites, count * 2);
+				trims = Arrays.copyOf(trims, count * 8);
+			}
+			trim(img, trims, count * 4);
+			sprites[count] = img;
+			return count++;
+		}
+
+		/**
+		 * Adds several sprites, for example the ones from {@link SpriteSheet#getSprites(int, int)}
+		 *
+		 * @param imgs
+		 *            The sprites
+		 * @return The index of the region of the first sprite, the others follow in order
+		 */
+		public int addAll(BufferedImage[] imgs) {
+			int first = count;
+			for (BufferedImage img : imgs)
+				add(img);
+			return first;
+		}
+
+		/**
+		 * Adds several sprites
+		 *
+		 * @param imgs
+		 *            The sprites
+		 * @return The index of the region of the first sprite, the others follow in order
+		 */
+		public int addAll(PixImage[] imgs) {
+			int first = count;
+			for (PixImage img : imgs)
+				add(img);
+			return first;
+		}
+
+		/**
+		 * Packs all the sprites added so far. The sprites are copied, they may change afterwards
+		 *
+		 * @return The atlas
+		 */
+		public SpriteAtlas build() {
+			// Tall sprites first, the skyline stays flatter that way
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++)
+				order[i] = i;
+			Arrays.sort(order, (a, b) -> trims[b * 4 + 3] != trims[a * 4 + 3] ? trims[b * 4 + 3] - trims[a * 4 + 3] : trims[b * 4 + 2] - trims[a * 4 + 2]);
+
+			Skyline[] skylines = new Skyline[4];
+			int pageCount = 0;
+			int[] place = new int[count * 3]; // page, x, y
+			for (int k = 0; k < count; k++) {
+				int i = order[k];
+				int w = trims[i * 4 + 2], h = trims[i * 4 + 3];
+				if (w == 0 || h == 0) {
+					place[i * 3] = -1;
+					continue;
+				}
+				int page = 0;
+				while (page < pageCount && !skylines[page].insert(w, h))
+					page++;
+				if (page == pageCount) {
+					if (pageCount == skylines.length) skylines = Arrays.copyOf(skylines, pageCount * 2);
+					skylines[pageCount++] = new Skyline(Math.max(pageSize, w), Math.max(pageSize, h));
+					skylines[page].insert(w, h);
+				}
+				place[i * 3] = page;
+				place[i * 3 + 1] = skylines[page].lastX;
+				place[i * 3 + 2] = skylines[page].lastY;
+			}
+
+			// Pages are only as high as they need to be
+			PixImage[] pages = new PixImage[pageCount];
+			for (int p = 0; p < pageCount; p++)
+				pages[p] = new PixImage(skylines[p].width, skylines[p].getUsedHeight());
+
+			Region[] regions = new Region[count];
+			PixImage empty = new PixImage(0, 0);
+			for (int i = 0; i < count; i++) {
+				int tx = trims[i * 4], ty = trims[i * 4 + 1], w = trims[i * 4 + 2], h = trims[i * 4 + 3];
+				int page = place[i * 3];
+				PixImage src = sprites[i];
+				if (page < 0) {
+					regions[i] = new Region(empty, -1, 0, 0, src.getWidth(), src.getHeight());
+					continue;
+				}
+				PixImage dst = pages[page];
+				int px = place[i * 3 + 1], py = place[i * 3 + 2];
+				int[] s = src.getPixels(), d = dst.getPixels();
+				int mask = src.getAlphaMask();
+				for (int y = 0; y < h; y++) {
+					int si = src.getOffset() + tx + (ty + y) * src.getScan();
+					int di = px + (py + y) * dst.getScan();
+					if (mask == 0) System.arraycopy(s, si, d, di, w);
+					else for (int x = 0; x < w; x++)
+						d[di + x] = s[si + x] | mask;
+				}
+				regions[i] = new Region(dst.getSubImage(px, py, w, h), page, tx, ty, src.getWidth(), src.getHeight());
+			}
+			return new SpriteAtlas(pages, regions);
+		}
+
+		/**
+		 * Finds the smallest rectangle containing all pixels that aren't fully transparent
+		 */
+		private static void trim(PixImage img, int[] out, int i) {
+			int x0 = img.getWidth(), y0 = img.getHeight(), x1 = 0, y1 = 0;
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++) {
+					if (img.getPixel(x, y) >>> 24 == 0) continue;
+					if (x < x0) x0 = x;
+					if (x >= x1) x1 = x + 1;
+					if (y < y0) y0 = y;
+					y1 = y + 1;
+				}
+			}
+			if (x0 >= x1) x0 = y0 = x1 = y1 = 0;
+			out[i] = x0;
+			out[i + 1] = y0;
+			out[i + 2] = x1 - x0;
+			out[i + 3] = y1 - y0;
+		}
+	}
+
+	/**
+	 * The top edge of everything placed on a page so far, as segments from left to right. New rectangles go where their top edge ends up the lowest.
+	 */
+	private static class Skyline {
+
+		final int width, height;
+		/** x, y and width of every segment */
+		private int[] segments = new int[3 * 16];
+		private int count = 1;
+		/** Where the last rectangle was placed */
+		int lastX, lastY;
+
+		Skyline(int width, int height) {
+			this.width = width;
+			this.height = height;
+			segments[2] = width;
+		}
+
+		/**
+		 * Places a rectangle
+		 *
+		 * @return False if it doesn't fit
+		 */
+		boolean insert(int w, int h) {
+			int best = -1, bestX = 0, bestY = Integer.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				int x = segments[i * 3];
+				if (x + w > width) break;
+				// The rectangle rests on the highest segment below it
+				int y = 0;
+				for (int j = i, right = x; right < x + w; j++) {
+					y = Math.max(y, segments[j * 3 + 1]);
+					right = segments[j * 3] + segments[j * 3 + 2];
+				}
+				if (y + h <= height && y < bestY) {
+					best = i;
+					bestX = x;
+					bestY = y;
+				}
+			}
+			if (best < 0) return false;
+
+			// Replace the covered segments with the new one
+			int end = best;
+			while (end < count && segments[end * 3] + segments[end * 3 + 2] <= bestX + w)
+				end++;
+			int[] added = { bestX, bestY + h, w };
+			int removed = end - best;
+			if (end < count && segments[end * 3] < bestX + w) { // Partly covered, cut it
+				segments[end * 3 + 2] -= bestX + w - segments[end * 3];
+				segments[end * 3] = bestX + w;
+			}
+			if (count - removed + 1 > segments.length / 3) segments = Arrays.copyOf(segments, segments.length * 2);
+			System.arraycopy(segments, end * 3, segments, (best + 1) * 3, (count - end) * 3);
+			count += 1 - removed;
+			System.arraycopy(added, 0, segments, best * 3, 3);
+
+			// Neighbours at the same height become one segment
+			for (int i = Math.max(best - 1, 0); i < Math.min(best + 1, count - 1); i++) {
+				if (segments[i * 3 + 1] == segments[(i + 1) * 3 + 1]) {
+					segments[i * 3 + 2] += segments[(i + 1) * 3 + 2];
+					System.arraycopy(segments, (i + 2) * 3, segments, (i + 1) * 3, (count - i - 2) * 3);
+					count--;
+					i--;
+				}
+			}
+			lastX = bestX;
+			lastY = bestY;
+			return true;
+		}
+
+		int getUsedHeight() {
+			int h = 0;
+			for (int i = 0; i < count; i++)
+				h = Math.max(h, segments[i * 3 + 1]);
+			return h;
+		}
+	}
+
+}
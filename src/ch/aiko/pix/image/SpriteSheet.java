@@ -10,6 +10,7 @@ import javax.imageio.ImageIO;
 public class SpriteSheet {
 
 	private BufferedImage img;
+	private PixImage pixImg;
 
 	public SpriteSheet(BufferedImage img) {
 		this.img = img;
@@ -50,4 +51,42 @@ public class SpriteSheet {
 		return sprites;
 	}
 
+	/**
+	 * Gets the whole sheet as a PixImage. Gets converted once, the sprites are views into it
+	 * 
+	 * @return The sheet
+	 */
+	public PixImage getPixImage() {
+		if (pixImg == null) pixImg = PixImage.fromImage(img);
+		return pixImg;
+	}
+
+	public PixImage getPixSprite(int x, int y, int w, int h) {
+		return getPixImage().getSubImage(x, y, w, h);
+	}
+
+	public PixImage[] getPixSprites(int w, int h) {
+		PixImage sheet = getPixImage();
+		int sh = sheet.getWidth() / w, sv = sheet.getHeight() / h;
+		PixImage[] sprites = new PixImage[sh * sv];
+		for (int i = 0; i < sprites.length; i++)
+			sprites[i] = sheet.getSubImage((i % sh) * w, (i / sh) * h, w, h);
+		return sprites;
+	}
+
+	/**
+	 * Cuts the sheet into sprites like {@link #getSprites(int, int)} and packs them into an atlas. Region i of the atlas is sprite i
+	 * 
+	 * @param w
+	 *            The width of a sprite
+	 * @param h
+	 *            The height of a sprite
+	 * @return The atlas
+	 */
+	public SpriteAtlas getAtlas(int w, int h) {
+		SpriteAtlas.Builder b = new SpriteAtlas.Builder();
+		b.addAll(getPixSprites(w, h));
+		return b.build();
+	}
+
 }
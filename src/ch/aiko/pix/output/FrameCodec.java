@@ -0,0 +1,98 @@
+package ch.aiko.pix.output;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores a frame as the difference to the frame before it. The two frames get XORed, so unchanged pixels become 0, and the result is written as runs: the amount of unchanged pixels, the amount of changed ones and the XORed values of the changed ones. The amounts are variable length, small ones only need a byte. Key frames are stored as the difference to a black frame.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+final class FrameCodec {
+
+	private FrameCodec() {}
+
+	/**
+	 * How many bytes encoding a frame can take at most
+	 *
+	 * @param pixels
+	 *            The amount of pixels in the frame
+	 * @return The maximum size
+	 */
+	static int maxSize(int pixels) {
+		// Changed runs absorb single unchanged pixels, so every run pair covers at least three pixels
+		return pixels * 4 + (pixels / 3 + 2) * 10;
+	}
+
+	/**
+	 * Encodes a frame
+	 *
+	 * @param frame
+	 *            The frame to encode
+	 * @param previous
+	 *            The frame before it, null for a key frame
+	 * @param n
+	 *            The amount of pixels
+	 * @param out
+	 *            Where the encoded frame goes, needs {@link #maxSize(int)} bytes left
+	 */
+	static void encode(int[] frame, int[] previous, int n, ByteBuffer out) {
+		int i = 0;
+		while (i < n) {
+			int same = i;
+			while (same < n && frame[same] == (previous == null ? 0 : previous[same]))
+				same++;
+			// A single unchanged pixel costs less as part of the changed run than as a run of its own
+			int changed = same;
+			while (changed < n && (frame[changed] != (previous == null ? 0 : previous[changed]) || changed + 1 < n && frame[changed + 1] != (previous == null ? 0 : previous[changed + 1])))
+				changed++;
+			putVarInt(out, same - i);
+			putVarInt(out, changed - same);
+			for (int k = same; k < changed; k++)
+				out.putInt(previous == null ? frame[k] : frame[k] ^ previous[k]);
+			i = changed;
+		}
+	}
+
+	/**
+	 * Decodes a frame on top of the one before it
+	 *
+	 * @param in
+	 *            The encoded frame
+	 * @param frame
+	 *            Contains the frame before it, gets replaced with the decoded one
+	 * @param n
+	 *            The amount of pixels
+	 * @param key
+	 *            If it's a key frame, then the content of frame doesn't matter
+	 */
+	static void decode(ByteBuffer in, int[] frame, int n, boolean key) {
+		if (key) java.util.Arrays.fill(frame, 0, n, 0);
+		int i = 0;
+		while (i < n) {
+			i += getVarInt(in);
+			int changed = getVarInt(in);
+			if (i + changed > n) throw new IllegalStateException("Corrupt frame: run ends at " + (i + changed) + " of " + n);
+			for (int end = i + changed; i < end; i++)
+				frame[i] ^= in.getInt();
+		}
+	}
+
+	private static void putVarInt(ByteBuffer out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) (v & 0x7F | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	private static int getVarInt(ByteBuffer in) {
+		int v = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) return v;
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package ch.aiko.pix.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a file written by a {@link FrameRecorder}. Frames can be read in any order, seeking decodes from the closest key frame before the wanted frame. Reading the frames one after another only decodes each of them once.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class FrameReader implements Closeable {
+
+	/** How much of the file gets mapped at once, at least one frame */
+	private static final int WINDOW_SIZE = 256 << 20;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int width, height, frameCount;
+	private final long dataEnd;
+
+	/** Where the data of every frame starts in the file */
+	private final long[] offsets;
+	private final int[] sizes;
+	private final long[] times;
+	private final boolean[] keys;
+
+	/** The mapped part of the file */
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	/** The last decoded frame, the next frames can be decoded on top of it */
+	private final int[] decoded;
+	private int current = -1;
+
+	/**
+	 * Opens a recording. Frames written after this aren't visible
+	 *
+	 * @param file
+	 *            The file to read
+	 * @throws IOException
+	 *             If the file can't be read or isn't a recording
+	 */
+	public FrameReader(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		if (channel.size() < FrameRecorder.HEADER_SIZE) throw error("File too short");
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FrameRecorder.HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt(0) != FrameRecorder.MAGIC) throw error("Not a recording");
+		if (header.getInt(4) != FrameRecorder.VERSION) throw error("Unsupported version " + header.getInt(4));
+		width = header.getInt(8);
+		height = header.getInt(12);
+		frameCount = header.getInt(20);
+		dataEnd = header.getLong(24);
+		if (width <= 0 || height <= 0 || frameCount < 0 || dataEnd > channel.size()) throw error("Corrupt header");
+
+		offsets = new long[frameCount];
+		sizes = new int[frameCount];
+		times = new long[frameCount];
+		keys = new boolean[frameCount];
+		long pos = FrameRecorder.HEADER_SIZE;
+		for (int i = 0; i < frameCount; i++) {
+			if (pos + FrameRecorder.FRAME_HEADER_SIZE > dataEnd) throw error("Frame " + i + " is missing");
+			MappedByteBuffer b = map(pos, FrameRecorder.FRAME_HEADER_SIZE);
+			int p = (int) (pos - windowStart);
+			sizes[i] = b.getInt(p);
+			keys[i] = b.get(p + 4) != 0;
+			times[i] = b.getLong(p + 5);
+			offsets[i] = pos + FrameRecorder.FRAME_HEADER_SIZE;
+			pos = offsets[i] + sizes[i];
+			if (sizes[i] < 0 || pos > dataEnd) throw error("Frame " + i + " is cut off");
+		}
+		if (frameCount > 0 && !keys[0]) throw error("First frame isn't a key frame");
+		decoded = new int[width * height];
+	}
+
+	private IOException error(String msg) throws IOException {
+		close();
+		return new IOException(msg);
+	}
+
+	/**
+	 * Makes sure a part of the file is mapped
+	 */
+	private MappedByteBuffer map(long pos, int len) throws IOException {
+		if (window == null || pos < windowStart || pos + len > windowStart + window.capacity()) {
+			windowStart = pos;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Math.max(WINDOW_SIZE, len), dataEnd - pos));
+			window.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return window;
+	}
+
+	/**
+	 * Decodes a frame
+	 *
+	 * @param frame
+	 *            The number of the frame, starting at 0
+	 * @param dst
+	 *            Where the colors go, needs space for width * height colors
+	 * @throws IOException
+	 *             If the file can't be read
+	 */
+	public void readFrame(int frame, int[] dst) throws IOException {
+		if (frame < 0 || frame >= frameCount) throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+		int start = frame;
+		while (!keys[start])
+			start--;
+		if (current >= start && current <= frame) start = current + 1; // Continue from the last frame instead
+		for (int i = start; i <= frame; i++) {
+			MappedByteBuffer b = map(offsets[i], sizes[i]);
+			b.limit((int) (offsets[i] - windowStart) + sizes[i]).position((int) (offsets[i] - windowStart));
+			current = -1; // In case decoding fails
+			FrameCodec.decode(b, decoded, decoded.length, keys[i]);
+			b.clear();
+			current = i;
+		}
+		System.arraycopy(decoded, 0, dst, 0, decoded.length);
+	}
+
+	/**
+	 * Finds the frame that was recorded at a time
+	 *
+	 * @param nanos
+	 *            The time since the first frame in nanoseconds
+	 * @return The last frame recorded at or before the time, 0 if the time is before the first frame
+	 */
+	public int getFrameAt(long nanos) {
+		int i = Arrays.binarySearch(times, nanos);
+		if (i < 0) i = -i - 2;
+		return Math.max(0, i);
+	}
+
+	/**
+	 * Gets when a frame was recorded
+	 *
+	 * @param frame
+	 *            The number of the frame
+	 * @return The time since the first frame in nanoseconds
+	 */
+	public long getTime(int frame) {
+		return times[frame];
+	}
+
+	/**
+	 * If a frame is a key frame, those can be decoded without the frames before them
+	 *
+	 * @param frame
+	 *            The number of the frame
+	 * @return True if it's a key frame
+	 */
+	public boolean isKeyFrame(int frame) {
+		return keys[frame];
+	}
+
+	/**
+	 * Gets the amount of frames in the recording
+	 *
+	 * @return The amount of frames
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the width of the frames
+	 *
+	 * @return The width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the frames
+	 *
+	 * @return The height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		raf.close();
+	}
+
+}
@@ -0,0 +1,310 @@
+package ch.aiko.pix.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import ch.aiko.pix.graphics.FrameListener;
+import ch.aiko.pix.graphics.PixPanel;
+import ch.aiko.pix.graphics.renderer.Renderer;
+
+/**
+ * Records frames into a raw video file without slowing down the render thread. Each frame is only copied into a ring of buffers, a background thread compresses it against the frame before it and appends it to a memory mapped file. If the writer falls behind and the ring is full, frames get dropped instead of making the render thread wait.
+ *
+ * Can be added to a {@link PixPanel} with {@link PixPanel#addFrameListener(FrameListener)} to record everything it draws. The files are read with a {@link FrameReader}.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes: the magic number, the version, the width, the height, the key frame interval, the amount of frames and the end of the written data as a long. Then the frames follow, each one as its size in bytes, 1 for key frames and 0 for the others, the time in nanoseconds since the first frame as a long and the frame encoded by {@link FrameCodec}. Everything is little endian. The file can be longer than the written data. It's only guaranteed to be consistent after {@link #close()}.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class FrameRecorder implements FrameListener, Closeable {
+
+	/** The first four bytes of every recording, "PIXR" */
+	public static final int MAGIC = 0x50495852;
+	/** The version of the file format */
+	public static final int VERSION = 1;
+	/** The size of the file header in bytes */
+	public static final int HEADER_SIZE = 32;
+	/** The size of the header in front of every frame in bytes */
+	public static final int FRAME_HEADER_SIZE = 13;
+	/** How many frames can wait for the writer by default */
+	public static final int DEFAULT_BUFFER_FRAMES = 8;
+	/** How many frames there are from one key frame to the next by default */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+
+	/** How much of the file gets mapped at once */
+	private static final int CHUNK_SIZE = 64 << 20;
+
+	private final int width, height, keyframeInterval;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	/** The part of the file currently written to */
+	private MappedByteBuffer chunk;
+	/** Where chunk starts in the file */
+	private long chunkStart;
+
+	/** Buffers that can take the next frame */
+	private final ArrayBlockingQueue<Slot> free;
+	/** Frames waiting for the writer */
+	private final ArrayBlockingQueue<Slot> filled;
+	/** Tells the writer to stop */
+	private final Slot end = new Slot(null);
+
+	private final Thread writer;
+	private volatile boolean closed = false;
+	private volatile int recorded = 0, dropped = 0;
+	private long firstTime = -1;
+
+	/**
+	 * Creates a recorder with the default buffer size and key frame interval. The file gets overwritten
+	 *
+	 * @param file
+	 *            The file to record to
+	 * @param width
+	 *            The width of the frames
+	 * @param height
+	 *            The height of the frames
+	 * @throws IOException
+	 *             If the file can't be mapped
+	 */
+	public FrameRecorder(File file, int width, int height) throws IOException {
+		this(file, width, height, DEFAULT_BUFFER_FRAMES, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a recorder. The file gets overwritten
+	 *
+	 * @param file
+	 *            The file to record to
+	 * @param width
+	 *            The width of the frames
+	 * @param height
+	 *            The height of the frames
+	 * @param bufferFrames
+	 *            How many frames can wait for the writer before new ones get dropped
+	 * @param keyframeInterval
+	 *            How many frames there are from one key frame to the next. More frames compress better, fewer make seeking faster
+	 * @throws IOException
+	 *             If the file can't be mapped
+	 */
+	public FrameRecorder(File file, int width, int height, int bufferFrames, int keyframeInterval) throws IOException {
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+		this.width = width;
+		this.height = height;
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, width).putInt(12, height).putInt(16, this.keyframeInterval).putInt(20, 0).putLong(24, HEADER_SIZE);
+		map(HEADER_SIZE, 0);
+
+		bufferFrames = Math.max(1, bufferFrames);
+		free = new ArrayBlockingQueue<>(bufferFrames);
+		filled = new ArrayBlockingQueue<>(bufferFrames + 1);
+		for (int i = 0; i < bufferFrames; i++)
+			free.add(new Slot(new int[width * height]));
+
+		writer = new Thread(() -> writeLoop(), "frame_recorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records the frame a panel just finished
+	 */
+	@Override
+	public void frameFinished(PixPanel panel, Renderer renderer, long frame) {
+		record(renderer);
+	}
+
+	/**
+	 * Records the current frame of a renderer. Frames of a renderer with another size than the recording get dropped
+	 *
+	 * @param r
+	 *            The renderer
+	 * @return False if the frame was dropped
+	 */
+	public boolean record(Renderer r) {
+		if (r.getWidth() != width || r.getHeight() != height) {
+			dropped++;
+			return false;
+		}
+		Slot s = take();
+		if (s == null) return false;
+		r.copyPixels(s.pixels);
+		return submit(s);
+	}
+
+	/**
+	 * Records a frame
+	 *
+	 * @param pixels
+	 *            The colors of the frame
+	 * @param offset
+	 *            The index of the upper left pixel
+	 * @param scan
+	 *            The distance from one row to the next in the array
+	 * @return False if the frame was dropped
+	 */
+	public boolean record(int[] pixels, int offset, int scan) {
+		Slot s = take();
+		if (s == null) return false;
+		if (scan == width) System.arraycopy(pixels, offset, s.pixels, 0, width * height);
+		else for (int y = 0; y < height; y++)
+			System.arraycopy(pixels, offset + y * scan, s.pixels, y * width, width);
+		return submit(s);
+	}
+
+	/**
+	 * Gets a free buffer, or null if there is none and the frame has to be dropped
+	 */
+	private Slot take() {
+		Slot s = closed ? null : free.poll();
+		if (s == null) dropped++;
+		return s;
+	}
+
+	private boolean submit(Slot s) {
+		long now = System.nanoTime();
+		if (firstTime < 0) firstTime = now;
+		s.time = now - firstTime;
+		filled.add(s);
+		return true;
+	}
+
+	/**
+	 * run function of the writer thread
+	 */
+	private void writeLoop() {
+		int[] previous = new int[width * height];
+		int frame = 0;
+		int maxSize = FRAME_HEADER_SIZE + FrameCodec.maxSize(width * height);
+		try {
+			while (true) {
+				Slot s = filled.take();
+				if (s == end) break;
+				if (chunk.remaining() < maxSize) {
+					chunk.force(); // Nothing forces this part of the file anymore after it's unmapped
+					map(chunkStart + chunk.position(), maxSize);
+				}
+
+				boolean key = frame % keyframeInterval == 0;
+				int start = chunk.position();
+				chunk.position(start + FRAME_HEADER_SIZE);
+				FrameCodec.encode(s.pixels, key ? null : previous, width * height, chunk);
+				chunk.putInt(start, chunk.position() - start - FRAME_HEADER_SIZE).put(start + 4, (byte) (key ? 1 : 0)).putLong(start + 5, s.time);
+				frame++;
+				// The header and the frames are in different mappings and nothing orders the writes between them, another process reading the file now could see the header before the frame. Only a closed file is complete
+				header.putInt(20, frame).putLong(24, chunkStart + chunk.position());
+
+				// The frame is the previous one now, the old previous buffer takes the next frame
+				int[] t = previous;
+				previous = s.pixels;
+				s.pixels = t;
+				recorded++;
+				free.add(s);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			closed = true;
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Maps the next part of the file
+	 */
+	private void map(long position, int minSize) throws IOException {
+		chunkStart = position;
+		chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(CHUNK_SIZE, minSize));
+		chunk.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the frames that are still waiting and closes the file. Frames recorded afterwards get dropped
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) return;
+		closed = true;
+		if (writer.isAlive()) {
+			filled.add(end);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		chunk.force(); // The frames reach the disk before the header that counts them, the earlier chunks were forced when they were replaced
+		header.force();
+		long end = header.getLong(24);
+		chunk = null;
+		try {
+			raf.setLength(end); // Cut off the unused part of the last chunk
+		} catch (IOException e) {
+			// Some systems don't allow it while the file is mapped, then the rest stays
+		}
+		channel.close();
+		raf.close();
+	}
+
+	/**
+	 * Gets how many frames were written to the file so far
+	 *
+	 * @return The amount of frames
+	 */
+	public int getRecordedFrames() {
+		return recorded;
+	}
+
+	/**
+	 * Gets how many frames were dropped because the writer fell behind or the renderer had the wrong size
+	 *
+	 * @return The amount of dropped frames
+	 */
+	public int getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * Gets the width of the frames
+	 *
+	 * @return The width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the frames
+	 *
+	 * @return The height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * A buffer in the ring
+	 */
+	private static class Slot {
+		int[] pixels;
+		long time;
+
+		Slot(int[] pixels) {
+			this.pixels = pixels;
+		}
+	}
+
+}
@@ -0,0 +1,431 @@
+package ch.aiko.pix.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import ch.aiko.pix.graphics.FrameListener;
+import ch.aiko.pix.graphics.PixPanel;
+import ch.aiko.pix.graphics.renderer.Renderer;
+
+/**
+ * Sends the frames of a panel to any amount of {@link FrameViewer viewers} over the network. The screen is split into tiles and only the tiles that changed get compressed and sent.
+ *
+ * The render thread only copies the frame and goes on. A network thread compares it to the frame before, sends the changed tiles to every viewer that is ready and remembers which tiles a viewer still needs while it's busy. A slow viewer doesn't get every frame, it gets the newest content of every tile that changed since its last update, so it can't slow down the panel or the other viewers.
+ *
+ * A viewer first receives the magic number, the version, the width, the height and the tile size as ints. Then updates follow, each one as its length in bytes, the frame number as a long, the amount of tiles and for each tile its index, the length of its data and its colors compressed with a {@link Deflater}. Tiles are numbered row by row, tiles at the right and bottom edges are cut off by the screen. Everything is big endian.
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class FrameStreamer implements FrameListener, Closeable {
+
+	/** The first four bytes sent to a viewer, "PIXS" */
+	public static final int MAGIC = 0x50495853;
+	/** The version of the protocol */
+	public static final int VERSION = 1;
+	/** The default width and height of the tiles */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/** How many bytes the system may buffer for a viewer */
+	private static final int SEND_BUFFER_SIZE = 64 << 10;
+
+	private final int width, height, tileSize, tilesX, tilesY;
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/** Filled by the render thread */
+	private int[] back;
+	/** The newest frame nobody looked at yet, swapped with back and current */
+	private int[] pending;
+	private boolean hasPending = false;
+	private final Object lock = new Object();
+
+	/** The frame the viewers get sent and the one before it, only used by the network thread */
+	private int[] current, previous;
+	private long frame = -1;
+	/** The compressed colors of every tile of the current frame, null if they weren't needed yet */
+	private final byte[][] compressed;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] tileBytes;
+
+	private final ArrayList<Viewer> viewers = new ArrayList<>();
+	private volatile int dropped = 0;
+
+	/**
+	 * Starts a server with the default tile size
+	 *
+	 * @param port
+	 *            The port to listen on, 0 for any free one
+	 * @param width
+	 *            The width of the frames
+	 * @param height
+	 *            The height of the frames
+	 * @throws IOException
+	 *             If the port can't be opened
+	 */
+	public FrameStreamer(int port, int width, int height) throws IOException {
+		this(port, width, height, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Starts a server
+	 *
+	 * @param port
+	 *            The port to listen on, 0 for any free one
+	 * @param width
+	 *            The width of the frames
+	 * @param height
+	 *            The height of the frames
+	 * @param tileSize
+	 *            The width and height of the tiles. Smaller tiles send less unchanged pixels but compress worse
+	 * @throws IOException
+	 *             If the port can't be opened
+	 */
+	public FrameStreamer(int port, int width, int height, int tileSize) throws IOException {
+		if (width <= 0 || height <= 0 || tileSize <= 0) throw new IllegalArgumentException("Invalid size: " + width + "x" + height + ", tiles " + tileSize);
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		tilesX = (width + tileSize - 1) / tileSize;
+		tilesY = (height + tileSize - 1) / tileSize;
+		compressed = new byte[tilesX * tilesY][];
+		tileBytes = new byte[tileSize * tileSize * 4];
+		back = new int[width * height];
+		pending = new int[width * height];
+		current = new int[width * height];
+		previous = new int[width * height];
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+
+		thread = new Thread(() -> networkLoop(), "frame_streamer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sends the frame a panel just finished
+	 */
+	@Override
+	public void frameFinished(PixPanel panel, Renderer renderer, long frame) {
+		send(renderer);
+	}
+
+	/**
+	 * Sends the current frame of a renderer. Frames of a renderer with another size than the stream get dropped
+	 *
+	 * @param r
+	 *            The renderer
+	 * @return False if the frame was dropped
+	 */
+	public boolean send(Renderer r) {
+		if (r.getWidth() != width || r.getHeight() != height) {
+			synchronized (lock) {
+				dropped++;
+			}
+			return false;
+		}
+		r.copyPixels(back);
+		publish();
+		return true;
+	}
+
+	/**
+	 * Sends a frame
+	 *
+	 * @param pixels
+	 *            The colors of the frame
+	 * @param offset
+	 *            The index of the upper left pixel
+	 * @param scan
+	 *            The distance from one row to the next in the array
+	 */
+	public void send(int[] pixels, int offset, int scan) {
+		for (int y = 0; y < height; y++)
+			System.arraycopy(pixels, offset + y * scan, back, y * width, width);
+		publish();
+	}
+
+	/**
+	 * Hands the frame in back to the network thread. A frame it didn't pick up yet gets replaced
+	 */
+	private void publish() {
+		synchronized (lock) {
+			int[] t = pending;
+			pending = back;
+			back = t;
+			if (hasPending) dropped++;
+			hasPending = true;
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * run function of the network thread
+	 */
+	private void networkLoop() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				break;
+			}
+			for (SelectionKey key : selector.selectedKeys()) {
+				if (!key.isValid()) continue;
+				if (key.isAcceptable()) accept();
+				else {
+					Viewer v = (Viewer) key.attachment();
+					try {
+						if (key.isReadable()) v.read();
+						if (key.isValid() && key.isWritable()) v.write();
+					} catch (IOException e) {
+						v.close(); // Disconnected
+					}
+				}
+			}
+			selector.selectedKeys().clear();
+			if (takeFrame()) {
+				for (int i = 0; i < viewers.size(); i++) {
+					try {
+						viewers.get(i).write();
+					} catch (IOException e) {
+						viewers.get(i).close();
+					}
+				}
+			}
+			viewers.removeIf(v -> !v.channel.isOpen());
+		}
+		for (Viewer v : viewers)
+			v.close();
+		try {
+			server.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		deflater.end();
+	}
+
+	private void accept() {
+		try {
+			SocketChannel c = server.accept();
+			if (c == null) return;
+			c.configureBlocking(false);
+			c.socket().setTcpNoDelay(true);
+			c.socket().setSendBufferSize(SEND_BUFFER_SIZE); // A big buffer would hide a slow viewer and fill up with old frames
+			Viewer v = new Viewer(c);
+			v.key = c.register(selector, SelectionKey.OP_READ, v);
+			viewers.add(v);
+			try {
+				v.write();
+			} catch (IOException e) {
+				v.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Takes the newest frame from the render thread and marks the tiles that changed for every viewer
+	 *
+	 * @return False if there was no new frame
+	 */
+	private boolean takeFrame() {
+		synchronized (lock) {
+			if (!hasPending) return false;
+			int[] t = previous;
+			previous = current;
+			current = pending;
+			pending = t;
+			hasPending = false;
+		}
+		frame++;
+		for (int ty = 0, t = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++, t++) {
+				if (frame > 0 && !tileChanged(tx, ty)) continue;
+				compressed[t] = null;
+				for (int i = 0; i < viewers.size(); i++)
+					viewers.get(i).dirty[t] = true;
+			}
+		}
+		return true;
+	}
+
+	private boolean tileChanged(int tx, int ty) {
+		int x0 = tx * tileSize, x1 = Math.min(x0 + tileSize, width);
+		for (int y = ty * tileSize, y1 = Math.min(y + tileSize, height); y < y1; y++) {
+			for (int i = x0 + y * width, end = x1 + y * width; i < end; i++)
+				if (current[i] != previous[i]) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compresses the colors of a tile of the current frame. Every tile is compressed at most once per frame, no matter how many viewers need it
+	 */
+	private byte[] getCompressed(int t) {
+		if (compressed[t] != null) return compressed[t];
+		int tx = t % tilesX, ty = t / tilesX;
+		int x0 = tx * tileSize, x1 = Math.min(x0 + tileSize, width);
+		int y0 = ty * tileSize, y1 = Math.min(y0 + tileSize, height);
+		int n = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int i = x0 + y * width, end = x1 + y * width; i < end; i++) {
+				int c = current[i];
+				tileBytes[n++] = (byte) (c >> 24);
+				tileBytes[n++] = (byte) (c >> 16);
+				tileBytes[n++] = (byte) (c >> 8);
+				tileBytes[n++] = (byte) c;
+			}
+		}
+		deflater.reset();
+		deflater.setInput(tileBytes, 0, n);
+		deflater.finish();
+		byte[] out = new byte[n + n / 1000 + 64];
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len == out.length) out = Arrays.copyOf(out, out.length * 2);
+			len += deflater.deflate(out, len, out.length - len);
+		}
+		return compressed[t] = Arrays.copyOf(out, len);
+	}
+
+	/**
+	 * Stops the server and disconnects all viewers
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the port the server listens on
+	 *
+	 * @return The port
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Gets how many viewers are connected
+	 *
+	 * @return The amount of viewers
+	 */
+	public int getViewerCount() {
+		return viewers.size();
+	}
+
+	/**
+	 * Gets how many frames were replaced by newer ones before the network thread got to them, or dropped because the renderer had the wrong size
+	 *
+	 * @return The amount of dropped frames
+	 */
+	public int getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * A connected viewer
+	 */
+	private class Viewer {
+
+		final SocketChannel channel;
+		SelectionKey key;
+		/** The tiles that changed since the viewer's last update */
+		final boolean[] dirty = new boolean[tilesX * tilesY];
+		/** What still has to be written, null if everything was sent */
+		ByteBuffer out;
+		private final ByteBuffer in = ByteBuffer.allocate(256);
+
+		Viewer(SocketChannel channel) {
+			this.channel = channel;
+			Arrays.fill(dirty, true);
+			out = ByteBuffer.allocate(20);
+			out.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize);
+			out.flip();
+		}
+
+		/**
+		 * Viewers don't send anything, this only notices when they disconnect
+		 */
+		void read() throws IOException {
+			in.clear();
+			if (channel.read(in) < 0) close();
+		}
+
+		/**
+		 * Writes as much as the socket takes without blocking. When the last update is out, the next one gets built from the tiles that changed in the meantime
+		 */
+		void write() throws IOException {
+			if (!channel.isOpen()) return;
+			while (true) {
+				if (out == null && !buildUpdate()) break;
+				channel.write(out);
+				if (out.hasRemaining()) break;
+				out = null;
+			}
+			// Only wait for the socket if something is left
+			key.interestOps(out == null ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Puts all tiles the viewer is missing into one update
+		 *
+		 * @return False if there is nothing to send
+		 */
+		boolean buildUpdate() {
+			if (frame < 0) return false;
+			int count = 0, size = 16;
+			for (int t = 0; t < dirty.length; t++) {
+				if (!dirty[t]) continue;
+				count++;
+				size += 8 + getCompressed(t).length;
+			}
+			if (count == 0) return false;
+			ByteBuffer b = ByteBuffer.allocate(size);
+			b.putInt(size - 4).putLong(frame).putInt(count);
+			for (int t = 0; t < dirty.length; t++) {
+				if (!dirty[t]) continue;
+				dirty[t] = false;
+				byte[] c = compressed[t];
+				b.putInt(t).putInt(c.length).put(c);
+			}
+			b.flip();
+			out = b;
+			return true;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
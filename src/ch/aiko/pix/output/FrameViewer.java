@@ -0,0 +1,226 @@
+package ch.aiko.pix.output;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+/**
+ * Receives the frames sent by a {@link FrameStreamer}. Every update only contains the tiles that changed, they get put into the image of the viewer.
+ *
+ * Can be started on its own to show a stream in a window: java ch.aiko.pix.output.FrameViewer host port
+ *
+ * @author AIKO (Aaron Hodel) 2017
+ *
+ */
+public class FrameViewer implements Closeable {
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final int width, height, tileSize, tilesX;
+
+	private final BufferedImage img;
+	private final int[] pixels;
+	private final Inflater inflater = new Inflater();
+	private byte[] data = new byte[0];
+	private final byte[] tileBytes;
+	private long frame = -1;
+	private boolean closed = false;
+
+	/**
+	 * Connects to a streamer
+	 *
+	 * @param host
+	 *            The address of the streamer
+	 * @param port
+	 *            The port of the streamer
+	 * @throws IOException
+	 *             If the connection fails or the other side isn't a streamer
+	 */
+	public FrameViewer(String host, int port) throws IOException {
+		socket = new Socket();
+		socket.setReceiveBufferSize(1 << 16); // Updates piling up here would be old by the time they get shown
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(host, port));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		if (in.readInt() != FrameStreamer.MAGIC) throw error("Not a frame stream");
+		if (in.readInt() != FrameStreamer.VERSION) throw error("Unsupported version");
+		width = in.readInt();
+		height = in.readInt();
+		tileSize = in.readInt();
+		if (width <= 0 || height <= 0 || tileSize <= 0) throw error("Invalid size");
+		tilesX = (width + tileSize - 1) / tileSize;
+		tileBytes = new byte[tileSize * tileSize * 4];
+		img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+	}
+
+	private IOException error(String msg) throws IOException {
+		socket.close();
+		return new IOException(msg);
+	}
+
+	/**
+	 * Waits for the next update and puts its tiles into the image
+	 *
+	 * @return False if the streamer closed the connection
+	 * @throws IOException
+	 *             If the connection fails or the update is broken
+	 */
+	public boolean readUpdate() throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (java.io.EOFException e) {
+			return false;
+		}
+		long number = in.readLong();
+		int count = in.readInt();
+		if (length < 12 || count < 0) throw new IOException("Invalid update");
+		// Read everything first, the image is only locked while the tiles get decoded
+		if (data.length < length - 12) data = new byte[length - 12];
+		in.readFully(data, 0, length - 12);
+		synchronized (this) {
+			if (closed) return false;
+			ByteBuffer b = ByteBuffer.wrap(data, 0, length - 12);
+			int tiles = tilesX * ((height + tileSize - 1) / tileSize);
+			for (int i = 0; i < count; i++) {
+				int t = b.getInt();
+				int len = b.getInt();
+				if (t < 0 || t >= tiles || len < 0 || len > b.remaining()) throw new IOException("Invalid tile " + t);
+				putTile(t, b.position(), len);
+				b.position(b.position() + len);
+			}
+			frame = number;
+		}
+		return true;
+	}
+
+	private void putTile(int t, int off, int len) throws IOException {
+		int x0 = t % tilesX * tileSize, x1 = Math.min(x0 + tileSize, width);
+		int y0 = t / tilesX * tileSize, y1 = Math.min(y0 + tileSize, height);
+		int n = (x1 - x0) * (y1 - y0) * 4;
+		inflater.reset();
+		inflater.setInput(data, off, len);
+		try {
+			int got = 0;
+			while (got < n && !inflater.finished()) {
+				int r = inflater.inflate(tileBytes, got, n - got);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				got += r;
+			}
+			if (got != n) throw new IOException("Tile " + t + " has " + got + " of " + n + " bytes");
+		} catch (DataFormatException e) {
+			throw new IOException("Broken tile " + t, e);
+		}
+		int b = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int i = x0 + y * width, end = x1 + y * width; i < end; i++, b += 4)
+				pixels[i] = (tileBytes[b] & 0xFF) << 24 | (tileBytes[b + 1] & 0xFF) << 16 | (tileBytes[b + 2] & 0xFF) << 8 | tileBytes[b + 3] & 0xFF;
+		}
+	}
+
+	/**
+	 * Gets the image containing the newest frame. Lock the viewer while reading it, otherwise an update can change it at the same time
+	 *
+	 * @return The image
+	 */
+	public BufferedImage getImage() {
+		return img;
+	}
+
+	/**
+	 * Copies the newest frame
+	 *
+	 * @param dst
+	 *            Where the colors go, needs space for width * height colors
+	 */
+	public synchronized void copyPixels(int[] dst) {
+		System.arraycopy(pixels, 0, dst, 0, width * height);
+	}
+
+	/**
+	 * Gets the number of the newest frame. Frames the streamer skipped for this viewer are missing
+	 *
+	 * @return The frame number, -1 before the first update
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Gets the width of the frames
+	 *
+	 * @return The width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the frames
+	 *
+	 * @return The height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		socket.close();
+		inflater.end();
+	}
+
+	/**
+	 * Shows a stream in a window
+	 *
+	 * @param args
+	 *            The host and the port of the streamer
+	 * @throws IOException
+	 *             If the connection fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: FrameViewer <host> <port>");
+			return;
+		}
+		FrameViewer viewer = new FrameViewer(args[0], Integer.parseInt(args[1]));
+		JComponent view = new JComponent() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void paintComponent(Graphics g) {
+				synchronized (viewer) {
+					g.drawImage(viewer.getImage(), 0, 0, getWidth(), getHeight(), null);
+				}
+			}
+		};
+		view.setPreferredSize(new Dimension(viewer.getWidth(), viewer.getHeight()));
+		JFrame frame = new JFrame(args[0] + ":" + args[1]);
+		frame.add(view);
+		frame.pack();
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setLocationRelativeTo(null);
+		frame.setVisible(true);
+
+		while (viewer.readUpdate())
+			SwingUtilities.invokeLater(() -> view.repaint());
+		viewer.close();
+	}
+
+}